@@ -0,0 +1,58 @@
+package db.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+/**
+ * Fills chat_messages.conversation_key for existing rows.
+ * Runs outside a migration transaction and commits every chunk, so only a few
+ * thousand rows are locked at any time and concurrent inserts keep flowing.
+ */
+public class V5__Backfill_chat_conversation_key extends BaseJavaMigration {
+
+    private static final int CHUNK_SIZE = 5000;
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+
+        try (PreparedStatement nextBoundary = connection.prepareStatement(
+                 "SELECT id FROM chat_messages WHERE id > ? ORDER BY id LIMIT 1 OFFSET " + (CHUNK_SIZE - 1));
+             PreparedStatement update = connection.prepareStatement(
+                 "UPDATE chat_messages " +
+                 "SET conversation_key = (LEAST(sender_id, receiver_id) << 32) | GREATEST(sender_id, receiver_id) " +
+                 "WHERE id > ? AND id <= ? AND conversation_key IS NULL")) {
+
+            long from = 0;
+            while (true) {
+                nextBoundary.setLong(1, from);
+                long to;
+                try (ResultSet rs = nextBoundary.executeQuery()) {
+                    // Last (partial) chunk: update everything that is left
+                    to = rs.next() ? rs.getLong(1) : Long.MAX_VALUE;
+                }
+
+                update.setLong(1, from);
+                update.setLong(2, to);
+                update.executeUpdate();
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+
+                if (to == Long.MAX_VALUE) {
+                    break;
+                }
+                from = to;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package klu.com.config;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import klu.com.model.AuthenticatedUser;
+import klu.com.service.AuthenticatedUserService;
+
+/**
+ * Resolves the "Authorization: Bearer" token once per request and stores the caller as the
+ * Spring Security principal, where AuthenticatedUserArgumentResolver picks it up.
+ * Requests without the header pass through untouched; endpoints still accept the "csrid" body field.
+ */
+public class JwtAuthenticationFilter extends OncePerRequestFilter {
+    
+    private static final String BEARER_PREFIX = "Bearer ";
+    
+    private static final Logger logger = LoggerFactory.getLogger(JwtAuthenticationFilter.class);
+    
+    private final AuthenticatedUserService authenticatedUserService;
+    
+    public JwtAuthenticationFilter(AuthenticatedUserService authenticatedUserService) {
+        this.authenticatedUserService = authenticatedUserService;
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.startsWith(BEARER_PREFIX)) {
+            try {
+                AuthenticatedUser principal = authenticatedUserService.resolve(header.substring(BEARER_PREFIX.length()));
+                if (principal != null) {
+                    SecurityContextHolder.getContext().setAuthentication(
+                        new UsernamePasswordAuthenticationToken(principal, null, List.of()));
+                }
+            } catch (Exception e) {
+                // Left unauthenticated; the endpoint answers as it would for a bad csrid
+                logger.debug("Ignoring invalid bearer token: {}", e.getMessage());
+            }
+        }
+        chain.doFilter(request, response);
+    }
+}
@@ -20,21 +20,28 @@ package klu.com.config;
 //    }
 //}
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
 import java.util.List;
 
+import klu.com.service.AuthenticatedUserService;
+
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
 
+    @Autowired
+    private AuthenticatedUserService authenticatedUserService;
+
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http
@@ -43,6 +50,8 @@ public class SecurityConfig {
             .csrf().disable()
             .authorizeHttpRequests()
             .anyRequest().permitAll(); // or configure roles here
+        // Resolve the bearer token once per request; endpoints read the principal instead of re-validating
+        http.addFilterBefore(new JwtAuthenticationFilter(authenticatedUserService), UsernamePasswordAuthenticationFilter.class);
 
         return http.build();
     }
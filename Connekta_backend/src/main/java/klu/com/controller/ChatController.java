@@ -1,22 +1,26 @@
 package klu.com.controller;
 
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import klu.com.model.AuthenticatedUser;
 import klu.com.model.ChatMessage;
-import klu.com.model.JWTManager;
-import klu.com.repository.ChatMessageRepository;
-import klu.com.repository.UsersRepository;
+import klu.com.service.AuthenticatedUserService;
+import klu.com.service.ChatMessageService;
+import klu.com.service.ChatPushService;
+import klu.com.service.ChatSearchService;
 
 @RestController
 @CrossOrigin(origins = "http://localhost:5173")
@@ -24,33 +28,54 @@ import klu.com.repository.UsersRepository;
 public class ChatController {
     
     @Autowired
-    private ChatMessageRepository chatMessageRepository;
+    private AuthenticatedUserService authenticatedUserService;
     
     @Autowired
-    private UsersRepository usersRepository;
+    private ChatPushService chatPushService;
     
     @Autowired
-    private JWTManager jwtManager;
+    private ChatSearchService chatSearchService;
     
-    // Get messages between two users
+    @Autowired
+    private ChatMessageService chatMessageService;
+    
+    // Server-Sent Events stream of incoming messages, for clients that cannot use the /ws STOMP endpoint.
+    // EventSource cannot send a body or headers, so the token is passed as a query parameter.
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> streamMessages(@RequestParam("csrid") String token) {
+        try {
+            AuthenticatedUser user = authenticatedUserService.resolve(token);
+            if (user == null) {
+                return ResponseEntity.status(401).body("Invalid token");
+            }
+            
+            return ResponseEntity.ok(chatPushService.subscribe(user.getId()));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(401).body("Invalid token");
+        }
+    }
+    
+    // Get one page of messages between two users, newest first.
+    // Optional "beforeId" / "afterId" cursors and "limit" page size keep the response bounded.
     @PostMapping("/messages")
-    public ResponseEntity<?> getMessages(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<?> getMessages(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         try {
             String token = (String) request.get("csrid");
             Long userId = Long.valueOf(String.valueOf(request.get("userId")));
             Long friendId = Long.valueOf(String.valueOf(request.get("friendId")));
+            Long beforeId = request.get("beforeId") != null ? Long.valueOf(String.valueOf(request.get("beforeId"))) : null;
+            Long afterId = request.get("afterId") != null ? Long.valueOf(String.valueOf(request.get("afterId"))) : null;
+            Integer limit = request.get("limit") != null ? Integer.valueOf(String.valueOf(request.get("limit"))) : null;
             
             // Validate token
-            String email = jwtManager.validateToken(token);
-            if (email.equals("401")) {
+            if (authenticatedUserService.resolve(principal, token) == null) {
                 return ResponseEntity.status(401).body("Invalid token");
             }
             
-            // Get messages between the users
-            List<ChatMessage> messages = chatMessageRepository.findMessagesBetweenUsers(userId, friendId);
-            
-            // Mark messages as read if the current user is the receiver
-            chatMessageRepository.markMessagesAsRead(friendId, userId);
+            // Get the requested page of messages between the users; reading it moves the user's watermark up
+            List<ChatMessage> messages = chatMessageService.getMessages(userId, friendId, beforeId, afterId, limit);
+            chatMessageService.markConversationRead(userId, friendId);
             
             return ResponseEntity.ok(messages);
         } catch (Exception e) {
@@ -59,30 +84,86 @@ public class ChatController {
         }
     }
     
+    // Hit ratio and estimated memory use of the hot-conversation message cache.
+    // Signed-in users only: the bearer header, or "csrid" as a query parameter.
+    @GetMapping("/cache/stats")
+    public ResponseEntity<?> getCacheStats(AuthenticatedUser principal, @RequestParam(value = "csrid", required = false) String token) {
+        if (authenticatedUserService.resolve(principal, token) == null) {
+            return ResponseEntity.status(401).body("Invalid token");
+        }
+        return ResponseEntity.ok(chatMessageService.getCacheStats());
+    }
+    
+    // Catch up after a reconnect: new messages across all of the caller's conversations since
+    // "sinceId" plus read-state changes after "readSince" / "readSinceReaderId" / "readSinceOtherUserId",
+    // in one bounded response. Clients keep the next* cursors and repeat the call while hasMore is true.
+    @PostMapping("/sync")
+    public ResponseEntity<?> syncMessages(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        try {
+            String token = (String) request.get("csrid");
+            Long sinceId = request.get("sinceId") != null ? Long.valueOf(String.valueOf(request.get("sinceId"))) : null;
+            Long readSince = request.get("readSince") != null ? Long.valueOf(String.valueOf(request.get("readSince"))) : null;
+            Long readSinceReaderId = request.get("readSinceReaderId") != null ? Long.valueOf(String.valueOf(request.get("readSinceReaderId"))) : null;
+            Long readSinceOtherUserId = request.get("readSinceOtherUserId") != null ? Long.valueOf(String.valueOf(request.get("readSinceOtherUserId"))) : null;
+            
+            // Validate token
+            AuthenticatedUser user = authenticatedUserService.resolve(principal, token);
+            if (user == null) {
+                return ResponseEntity.status(401).body("Invalid token");
+            }
+            
+            return ResponseEntity.ok(chatMessageService.syncMessages(user.getId(), sinceId, readSince, readSinceReaderId, readSinceOtherUserId));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body("Error syncing messages: " + e.getMessage());
+        }
+    }
+    
+    // Search the text of the caller's own messages, newest first.
+    // Every term of "query" must match; "beforeId" pages further back.
+    @PostMapping("/search")
+    public ResponseEntity<?> searchMessages(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        try {
+            String token = (String) request.get("csrid");
+            String query = (String) request.get("query");
+            Long beforeId = request.get("beforeId") != null ? Long.valueOf(String.valueOf(request.get("beforeId"))) : null;
+            Integer limit = request.get("limit") != null ? Integer.valueOf(String.valueOf(request.get("limit"))) : null;
+            
+            // Results are scoped to the token's user, not to a user id from the body
+            AuthenticatedUser user = authenticatedUserService.resolve(principal, token);
+            if (user == null) {
+                return ResponseEntity.status(401).body("Invalid token");
+            }
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("messages", chatSearchService.search(user.getId(), query, beforeId,
+                ChatMessageService.resolvePageSize(limit)));
+            response.put("complete", chatSearchService.isReady());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body("Error searching messages: " + e.getMessage());
+        }
+    }
+    
     // Send a new message
     @PostMapping("/send")
-    public ResponseEntity<?> sendMessage(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<?> sendMessage(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         try {
             String token = (String) request.get("csrid");
             Long senderId = Long.valueOf(String.valueOf(request.get("senderId")));
             Long receiverId = Long.valueOf(String.valueOf(request.get("receiverId")));
             String messageText = (String) request.get("messageText");
+            // Optional idempotency key: a retried send with the same key returns the original message id
+            String clientMessageKey = (String) request.get("clientMessageKey");
             
             // Validate token
-            String email = jwtManager.validateToken(token);
-            if (email.equals("401")) {
+            if (authenticatedUserService.resolve(principal, token) == null) {
                 return ResponseEntity.status(401).body("Invalid token");
             }
             
-            // Create and save the message
-            ChatMessage message = new ChatMessage();
-            message.setMessageText(messageText);
-            message.setSenderId(senderId);
-            message.setReceiverId(receiverId);
-            message.setReadStatus(0); // Unread
-            message.setTimestamp(new Date());
-            
-            chatMessageRepository.save(message);
+            // Saved through the chat engine, which also pushes it to both participants
+            ChatMessage message = chatMessageService.sendMessage(senderId, receiverId, messageText, null, clientMessageKey);
             
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
@@ -96,19 +177,18 @@ public class ChatController {
     
     // Mark messages as read
     @PostMapping("/read")
-    public ResponseEntity<?> markAsRead(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<?> markAsRead(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         try {
             String token = (String) request.get("csrid");
             Long senderId = Long.valueOf(String.valueOf(request.get("senderId")));
             Long receiverId = Long.valueOf(String.valueOf(request.get("receiverId")));
             
             // Validate token
-            String email = jwtManager.validateToken(token);
-            if (email.equals("401")) {
+            if (authenticatedUserService.resolve(principal, token) == null) {
                 return ResponseEntity.status(401).body("Invalid token");
             }
             
-            int updatedCount = chatMessageRepository.markMessagesAsRead(senderId, receiverId);
+            int updatedCount = chatMessageService.markConversationRead(receiverId, senderId);
             
             Map<String, Object> response = new HashMap<>();
             response.put("status", "success");
@@ -1,14 +1,25 @@
 package klu.com.controller;
 
-import klu.com.model.JWTManager;
+import klu.com.model.AuthenticatedUser;
+import klu.com.model.ChatMessage;
+import klu.com.service.AuthenticatedUserService;
 import klu.com.service.ChatMessageService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * The snake_case /api/* chat endpoints, as an adapter over ChatMessageService
+ */
 @RestController
 @CrossOrigin(origins = "http://localhost:5173")
 @RequestMapping("/api")
@@ -18,62 +29,81 @@ public class ChatMessageController {
     private ChatMessageService chatMessageService;
     
     @Autowired
-    private JWTManager jwtManager;
+    private AuthenticatedUserService authenticatedUserService;
     
     /**
-     * Fetch messages between two users
+     * Fetch one page of messages between two users, newest first.
+     * Accepts optional "beforeId" / "afterId" cursors and a "limit" page size.
      */
     @PostMapping("/messages")
-    public List<Map<String, Object>> getMessages(@RequestBody Map<String, Object> request) {
+    public List<Map<String, Object>> getMessages(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         String token = (String) request.get("csrid");
         Long userId = Long.parseLong(request.get("userId").toString());
         Long friendId = Long.parseLong(request.get("friendId").toString());
+        Long beforeId = request.get("beforeId") != null ? Long.parseLong(request.get("beforeId").toString()) : null;
+        Long afterId = request.get("afterId") != null ? Long.parseLong(request.get("afterId").toString()) : null;
+        Integer limit = request.get("limit") != null ? Integer.parseInt(request.get("limit").toString()) : null;
         
         // Validate token
-        String email = jwtManager.validateToken(token);
-        if ("401".equals(email)) {
+        if (authenticatedUserService.resolve(principal, token) == null) {
             return List.of();
         }
         
-        return chatMessageService.getMessagesBetweenUsers(userId, friendId);
+        List<ChatMessage> messages = chatMessageService.getMessages(userId, friendId, beforeId, afterId, limit);
+        List<Map<String, Object>> rows = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            rows.add(toRow(message));
+        }
+        return rows;
     }
     
     /**
      * Send a new message and save it to the chat_messages table
      */
     @PostMapping("/send-message")
-    public Map<String, Object> sendMessage(@RequestBody Map<String, Object> request) {
+    public Map<String, Object> sendMessage(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         Map<String, Object> response = new HashMap<>();
         
         // Validate token
         String token = (String) request.get("csrid");
-        String email = jwtManager.validateToken(token);
-        if ("401".equals(email)) {
+        if (authenticatedUserService.resolve(principal, token) == null) {
             response.put("status", "error");
             response.put("message", "Invalid token");
             return response;
         }
         
         String messageText = (String) request.get("message_text");
-        int readStatus = Integer.parseInt(request.get("read_status").toString());
         Long receiverId = Long.parseLong(request.get("receiver_id").toString());
         Long senderId = Long.parseLong(request.get("sender_id").toString());
-        String timestamp = (String) request.get("timestamp");
         
-        return chatMessageService.saveMessage(messageText, readStatus, receiverId, senderId, timestamp);
+        // read_status is ignored: new messages are unread until the receiver's watermark passes them
+        try {
+            Date timestamp = parseTimestamp((String) request.get("timestamp"));
+            // Optional idempotency key: a retried send with the same key returns the original message id
+            String clientMessageKey = (String) request.get("client_message_key");
+            ChatMessage message = chatMessageService.sendMessage(senderId, receiverId, messageText, timestamp, clientMessageKey);
+            
+            response.put("status", "success");
+            response.put("message", "Message sent successfully");
+            response.put("messageId", message.getId());
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "Failed to send message: " + e.getMessage());
+        }
+        
+        return response;
     }
     
     /**
      * Mark messages as read
      */
     @PostMapping("/mark-messages-read")
-    public Map<String, Object> markMessagesAsRead(@RequestBody Map<String, Object> request) {
+    public Map<String, Object> markMessagesAsRead(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         Map<String, Object> response = new HashMap<>();
         
         // Validate token
         String token = (String) request.get("csrid");
-        String email = jwtManager.validateToken(token);
-        if ("401".equals(email)) {
+        if (authenticatedUserService.resolve(principal, token) == null) {
             response.put("status", "error");
             response.put("message", "Invalid token");
             return response;
@@ -82,6 +112,47 @@ public class ChatMessageController {
         Long receiverId = Long.parseLong(request.get("receiver_id").toString());
         Long senderId = Long.parseLong(request.get("sender_id").toString());
         
-        return chatMessageService.markMessagesAsRead(receiverId, senderId);
+        try {
+            int updatedCount = chatMessageService.markConversationRead(receiverId, senderId);
+            
+            response.put("status", "success");
+            response.put("message", "Messages marked as read");
+            response.put("updatedCount", updatedCount);
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "Failed to mark messages as read: " + e.getMessage());
+        }
+        
+        return response;
+    }
+    
+    /**
+     * A message in the column-named row shape these endpoints have always returned
+     */
+    private static Map<String, Object> toRow(ChatMessage message) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", message.getId());
+        row.put("message_text", message.getMessageText());
+        row.put("sender_id", message.getSenderId());
+        row.put("receiver_id", message.getReceiverId());
+        row.put("conversation_key", message.getConversationKey());
+        row.put("timestamp", new Timestamp(message.getTimestamp().getTime()).toLocalDateTime());
+        row.put("read_status", message.getReadStatus());
+        return row;
+    }
+    
+    /**
+     * Client timestamps arrive either as ISO-8601 with an offset ("2024-05-01T10:15:30.000Z")
+     * or as a local date-time ("2024-05-01 10:15:30"); missing means now
+     */
+    private static Date parseTimestamp(String timestamp) {
+        if (timestamp == null || timestamp.isBlank()) {
+            return null;
+        }
+        try {
+            return Date.from(OffsetDateTime.parse(timestamp).toInstant());
+        } catch (DateTimeParseException e) {
+            return Timestamp.valueOf(LocalDateTime.parse(timestamp.replace(' ', 'T')));
+        }
     }
 }
@@ -8,7 +8,9 @@ import org.springframework.web.bind.annotation.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import klu.com.model.AuthenticatedUser;
 import klu.com.model.FriendsManager;
+import klu.com.service.AuthenticatedUserService;
 
 @CrossOrigin(origins = "http://localhost:5173")
 @RestController
@@ -20,19 +22,22 @@ public class FriendsController {
     @Autowired
     private FriendsManager friendsManager;
     
+    @Autowired
+    private AuthenticatedUserService authenticatedUserService;
+    
     /**
      * Send a friend request to another user
      */
     @PostMapping("/send-request")
-    public Map<String, Object> sendFriendRequest(@RequestBody Map<String, Object> request) {
+    public Map<String, Object> sendFriendRequest(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            String token = (String) request.get("csrid");
-            if (token == null) {
-                logger.error("Token is missing in the request");
+            AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
+            if (user == null) {
+                logger.error("Request is not authenticated");
                 response.put("status", "error");
-                response.put("message", "Authentication token is missing");
+                response.put("message", "Invalid or expired token");
                 return response;
             }
             
@@ -54,10 +59,9 @@ public class FriendsController {
                 return response;
             }
             
-            logger.info("Processing friend request: token={}, receiverId={}", 
-                    token.substring(0, Math.min(10, token.length())) + "...", receiverId);
+            logger.info("Processing friend request: senderId={}, receiverId={}", user.getId(), receiverId);
             
-            return friendsManager.sendFriendRequest(token, receiverId);
+            return friendsManager.sendFriendRequest(user, receiverId);
             
         } catch (Exception e) {
             logger.error("Error processing friend request", e);
@@ -71,12 +75,12 @@ public class FriendsController {
      * Accept a friend request
      */
     @PostMapping("/accept-request")
-    public Map<String, Object> acceptFriendRequest(@RequestBody Map<String, Object> request) {
+    public Map<String, Object> acceptFriendRequest(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         try {
-            String token = (String) request.get("csrid");
+            AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
             Long requestId = Long.valueOf(request.get("requestId").toString());
             
-            Map<String, Object> response = friendsManager.acceptFriendRequest(token, requestId);
+            Map<String, Object> response = friendsManager.acceptFriendRequest(user, requestId);
             
             // Log for debugging
             System.out.println("Friend request accepted: " + response);
@@ -96,95 +100,95 @@ public class FriendsController {
      * Reject a friend request
      */
     @PostMapping("/reject-request")
-    public Map<String, Object> rejectFriendRequest(@RequestBody Map<String, Object> request) {
-        String token = (String) request.get("csrid");
+    public Map<String, Object> rejectFriendRequest(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
         Long requestId = Long.valueOf(request.get("requestId").toString());
-        return friendsManager.rejectFriendRequest(token, requestId);
+        return friendsManager.rejectFriendRequest(user, requestId);
     }
     
     /**
      * Remove a friend
      */
     @PostMapping("/remove-friend")
-    public Map<String, Object> removeFriend(@RequestBody Map<String, Object> request) {
-        String token = (String) request.get("csrid");
+    public Map<String, Object> removeFriend(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
         Long friendId = Long.valueOf(request.get("friendId").toString());
-        return friendsManager.removeFriend(token, friendId);
+        return friendsManager.removeFriend(user, friendId);
     }
     
     /**
      * Block a user
      */
     @PostMapping("/block-user")
-    public Map<String, Object> blockUser(@RequestBody Map<String, Object> request) {
-        String token = (String) request.get("csrid");
+    public Map<String, Object> blockUser(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
         Long userId = Long.valueOf(request.get("userId").toString());
-        return friendsManager.blockUser(token, userId);
+        return friendsManager.blockUser(user, userId);
     }
     
     /**
      * Unblock a user
      */
     @PostMapping("/unblock-user")
-    public Map<String, Object> unblockUser(@RequestBody Map<String, Object> request) {
-        String token = (String) request.get("csrid");
+    public Map<String, Object> unblockUser(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
         Long userId = Long.valueOf(request.get("userId").toString());
-        return friendsManager.unblockUser(token, userId);
+        return friendsManager.unblockUser(user, userId);
     }
     
     /**
      * Get all friends of the current user
      */
     @PostMapping("/get-friends")
-    public Map<String, Object> getFriends(@RequestBody Map<String, String> request) {
-        String token = request.get("csrid");
-        return friendsManager.getFriends(token);
+    public Map<String, Object> getFriends(AuthenticatedUser principal, @RequestBody Map<String, String> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, request.get("csrid"));
+        return friendsManager.getFriends(user);
     }
     
     /**
      * Get all pending friend requests for the current user
      */
     @PostMapping("/pending-requests")
-    public Map<String, Object> getPendingRequests(@RequestBody Map<String, String> request) {
-        String token = request.get("csrid");
-        return friendsManager.getPendingRequests(token);
+    public Map<String, Object> getPendingRequests(AuthenticatedUser principal, @RequestBody Map<String, String> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, request.get("csrid"));
+        return friendsManager.getPendingRequests(user);
     }
     
     /**
      * Get all friend requests sent by the current user
      */
     @PostMapping("/sent-requests")
-    public Map<String, Object> getSentRequests(@RequestBody Map<String, String> request) {
-        String token = request.get("csrid");
-        return friendsManager.getSentRequests(token);
+    public Map<String, Object> getSentRequests(AuthenticatedUser principal, @RequestBody Map<String, String> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, request.get("csrid"));
+        return friendsManager.getSentRequests(user);
     }
     
     /**
      * Search for users to add as friends
      */
     @PostMapping("/search-users")
-    public Map<String, Object> searchUsers(@RequestBody Map<String, String> request) {
-        String token = request.get("csrid");
+    public Map<String, Object> searchUsers(AuthenticatedUser principal, @RequestBody Map<String, String> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, request.get("csrid"));
         String query = request.get("query");
-        return friendsManager.searchUsers(token, query);
+        return friendsManager.searchUsers(user, query);
     }
     
     /**
      * Get friend suggestions (friends of friends)
      */
     @PostMapping("/suggestions")
-    public Map<String, Object> getFriendSuggestions(@RequestBody Map<String, String> request) {
-        String token = request.get("csrid");
-        return friendsManager.getFriendSuggestions(token);
+    public Map<String, Object> getFriendSuggestions(AuthenticatedUser principal, @RequestBody Map<String, String> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, request.get("csrid"));
+        return friendsManager.getFriendSuggestions(user);
     }
     
     /**
      * Check friendship status between current user and another user
      */
     @PostMapping("/check-status")
-    public Map<String, Object> checkFriendshipStatus(@RequestBody Map<String, Object> request) {
-        String token = (String) request.get("csrid");
+    public Map<String, Object> checkFriendshipStatus(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
         Long otherUserId = Long.valueOf(request.get("otherUserId").toString());
-        return friendsManager.checkFriendshipStatus(token, otherUserId);
+        return friendsManager.checkFriendshipStatus(user, otherUserId);
     }
 }
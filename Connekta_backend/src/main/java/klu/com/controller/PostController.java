@@ -1,5 +1,7 @@
 package klu.com.controller;
 
+import klu.com.model.AuthenticatedUser;
+import klu.com.service.AuthenticatedUserService;
 import klu.com.service.PostService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
@@ -16,24 +18,27 @@ public class PostController {
     @Autowired
     private PostService postService;
     
+    @Autowired
+    private AuthenticatedUserService authenticatedUserService;
+    
     /**
      * Endpoint to create a new post
      */
     @PostMapping("/create")
-    public Map<String, Object> createPost(@RequestBody Map<String, Object> request) {
+    public Map<String, Object> createPost(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         System.out.println("POST /api/posts/create received");
         
         try {
-            String token = (String) request.get("csrid");
+            AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
             String caption = (String) request.get("caption");
             String imageUrl = (String) request.get("imageUrl");
             String visibility = (String) request.get("visibility");
             
-            System.out.println("Creating post with token present: " + (token != null));
+            System.out.println("Creating post as authenticated user: " + (user != null));
             System.out.println("Caption: " + caption);
             System.out.println("Image URL present: " + (imageUrl != null && !imageUrl.isEmpty()));
             
-            return postService.createPost(token, caption, imageUrl, visibility);
+            return postService.createPost(user, caption, imageUrl, visibility);
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -49,12 +54,12 @@ public class PostController {
      * Endpoint to get recent posts for feed
      */
     @PostMapping("/feed")
-    public Map<String, Object> getRecentPosts(@RequestBody Map<String, String> request) {
+    public Map<String, Object> getRecentPosts(AuthenticatedUser principal, @RequestBody Map<String, String> request) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            String token = request.get("csrid");
-            List<Map<String, Object>> posts = postService.getRecentPosts(token);
+            AuthenticatedUser user = authenticatedUserService.resolve(principal, request.get("csrid"));
+            List<Map<String, Object>> posts = postService.getRecentPosts(user);
             
             response.put("status", "success");
             response.put("posts", posts);
@@ -71,14 +76,14 @@ public class PostController {
      * Endpoint to get posts by a specific user
      */
     @PostMapping("/user")
-    public Map<String, Object> getUserPosts(@RequestBody Map<String, Object> request) {
+    public Map<String, Object> getUserPosts(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            String token = (String) request.get("csrid");
+            AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
             Long userId = Long.valueOf(request.get("userId").toString());
             
-            List<Map<String, Object>> posts = postService.getUserPosts(token, userId);
+            List<Map<String, Object>> posts = postService.getUserPosts(user, userId);
             
             response.put("status", "success");
             response.put("posts", posts);
@@ -95,11 +100,11 @@ public class PostController {
      * Endpoint to like a post
      */
     @PostMapping("/like")
-    public Map<String, Object> likePost(@RequestBody Map<String, Object> request) {
-        String token = (String) request.get("csrid");
+    public Map<String, Object> likePost(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        AuthenticatedUser user = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
         Long postId = Long.valueOf(request.get("postId").toString());
         
-        return postService.likePost(token, postId);
+        return postService.likePost(user, postId);
     }
     
     /**
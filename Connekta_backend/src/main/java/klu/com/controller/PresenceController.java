@@ -0,0 +1,154 @@
+package klu.com.controller;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import klu.com.model.AuthenticatedUser;
+import klu.com.service.AuthenticatedUserService;
+import klu.com.service.FriendGraphService;
+import klu.com.service.PresenceService;
+
+/**
+ * Online presence and typing indicators.
+ * WebSocket clients send heartbeats to /app/presence/heartbeat and typing events to
+ * /app/typing; the REST endpoints below are the same for clients without a socket.
+ */
+@RestController
+@CrossOrigin(origins = "http://localhost:5173")
+@RequestMapping("/api/presence")
+public class PresenceController {
+    
+    @Autowired
+    private PresenceService presenceService;
+    
+    @Autowired
+    private AuthenticatedUserService authenticatedUserService;
+    
+    @Autowired
+    private FriendGraphService friendGraphService;
+    
+    /**
+     * Keep the caller online for another TTL
+     */
+    @PostMapping("/heartbeat")
+    public Map<String, Object> heartbeat(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        Map<String, Object> response = new HashMap<>();
+        Long userId = authenticate(principal, (String) request.get("csrid"));
+        if (userId == null) {
+            response.put("status", "error");
+            response.put("message", "Invalid token");
+            return response;
+        }
+        
+        presenceService.heartbeat(userId);
+        response.put("status", "success");
+        return response;
+    }
+    
+    /**
+     * Presence of all of the caller's friends: one friends query, then answered from memory
+     */
+    @PostMapping("/friends")
+    public Map<String, Object> getFriendsPresence(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        Map<String, Object> response = new HashMap<>();
+        Long userId = authenticate(principal, (String) request.get("csrid"));
+        if (userId == null) {
+            response.put("status", "error");
+            response.put("message", "Invalid token");
+            return response;
+        }
+        
+        response.put("status", "success");
+        List<Long> friendIds = Arrays.stream(friendGraphService.getFriendIds(userId)).boxed().collect(Collectors.toList());
+        response.put("friends", presenceService.getPresence(friendIds));
+        return response;
+    }
+    
+    /**
+     * Start or stop the caller's typing indicator in the conversation with friendId (friends only)
+     */
+    @PostMapping("/typing")
+    public Map<String, Object> typing(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        Map<String, Object> response = new HashMap<>();
+        Long userId = authenticate(principal, (String) request.get("csrid"));
+        if (userId == null) {
+            response.put("status", "error");
+            response.put("message", "Invalid token");
+            return response;
+        }
+        
+        Long friendId = parseId(request.get("friendId"));
+        if (friendId == null) {
+            response.put("status", "error");
+            response.put("message", "A valid friendId is required");
+            return response;
+        }
+        if (!isFriend(userId, friendId)) {
+            response.put("status", "error");
+            response.put("message", "Users are not friends");
+            return response;
+        }
+        
+        boolean typing = !Boolean.FALSE.equals(request.get("typing"));
+        presenceService.publishTyping(userId, friendId, typing);
+        
+        response.put("status", "success");
+        return response;
+    }
+    
+    @MessageMapping("/presence/heartbeat")
+    public void heartbeat(Principal principal) {
+        Long userId = PresenceService.sessionUserId(principal);
+        if (userId != null) {
+            presenceService.heartbeat(userId);
+        }
+    }
+    
+    @MessageMapping("/typing")
+    public void typing(Principal principal, @Payload Map<String, Object> event) {
+        Long userId = PresenceService.sessionUserId(principal);
+        Long friendId = parseId(event.get("friendId"));
+        if (userId != null && friendId != null && isFriend(userId, friendId)) {
+            presenceService.publishTyping(userId, friendId, !Boolean.FALSE.equals(event.get("typing")));
+        }
+    }
+    
+    // Typing events only go to friends, so nobody can push them at arbitrary user ids
+    private boolean isFriend(Long userId, Long otherUserId) {
+        return Arrays.binarySearch(friendGraphService.getFriendIds(userId), otherUserId) >= 0;
+    }
+    
+    private static Long parseId(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private Long authenticate(AuthenticatedUser principal, String token) {
+        AuthenticatedUser user;
+        try {
+            user = authenticatedUserService.resolve(principal, token);
+        } catch (Exception e) {
+            return null;
+        }
+        return user != null ? user.getId() : null;
+    }
+}
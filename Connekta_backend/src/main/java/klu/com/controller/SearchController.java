@@ -1,17 +1,19 @@
 package klu.com.controller;
 
-import klu.com.model.JWTManager;
-import klu.com.model.Users;
-import klu.com.repository.UsersRepository;
+import klu.com.model.AuthenticatedUser;
+import klu.com.service.AuthenticatedUserService;
+import klu.com.service.PeopleSearchService;
+import klu.com.service.UserListingService;
+import klu.com.service.UserSearchService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
 
 @RestController
 @CrossOrigin(origins = "http://localhost:5173")
@@ -19,71 +21,87 @@ import java.util.stream.Collectors;
 public class SearchController {
     
     @Autowired
-    private UsersRepository usersRepository;
+    private AuthenticatedUserService authenticatedUserService;
     
     @Autowired
-    private JWTManager jwtManager;
+    private UserSearchService userSearchService;
+    
+    @Autowired
+    private UserListingService userListingService;
+    
+    @Autowired
+    private PeopleSearchService peopleSearchService;
     
     /**
      * Search for users by name or email
+     * (served from the in-memory index once it has been built)
      */
     @PostMapping("/users")
-    public Map<String, Object> searchUsers(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<?> searchUsers(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            String token = (String) request.get("csrid");
             String query = (String) request.get("query");
             
-            // Validate token
-            String email = jwtManager.validateToken(token);
-            if ("401".equals(email)) {
+            // Get current user
+            AuthenticatedUser currentUser = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
+            if (currentUser == null) {
                 response.put("status", "error");
                 response.put("message", "Invalid or expired token");
-                return response;
+                return ResponseEntity.ok(response);
             }
             
-            // Get current user
-            Optional<Users> currentUserOpt = usersRepository.findByEmail(email);
-            if (!currentUserOpt.isPresent()) {
-                response.put("status", "error");
-                response.put("message", "User not found");
-                return response;
+            // An empty query lists everyone: one keyset page when "afterId" or "limit" is given,
+            // otherwise the whole list streamed from the table
+            if (query == null || query.trim().isEmpty()) {
+                Long afterId = request.get("afterId") != null ? Long.valueOf(String.valueOf(request.get("afterId"))) : null;
+                Integer limit = request.get("limit") != null ? Integer.valueOf(String.valueOf(request.get("limit"))) : null;
+                if (afterId != null || limit != null) {
+                    response.putAll(userListingService.getPage(afterId, limit, currentUser.getId(), "id"));
+                    response.put("status", "success");
+                    return ResponseEntity.ok(response);
+                }
+                StreamingResponseBody body = out -> userListingService.streamUsers(out, currentUser.getId(), "id", "users");
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
             }
             
-            Users currentUser = currentUserOpt.get();
+            // Search by name or email, best matches first; "limit" caps the result
+            Integer limit = request.get("limit") != null ? Integer.valueOf(String.valueOf(request.get("limit"))) : null;
+            List<Map<String, Object>> formattedResults = userSearchService.search(query, currentUser.getId(), limit);
             
-            // Execute search
-            List<Users> searchResults;
+            response.put("status", "success");
+            response.put("users", formattedResults);
             
-            if (query == null || query.trim().isEmpty()) {
-                searchResults = usersRepository.findAll();
-            } else {
-                // Search by name or email
-                searchResults = usersRepository.findByFullnameContainingIgnoreCaseOrEmailContainingIgnoreCase(
-                    query, query);
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.put("status", "error");
+            response.put("message", "Error searching users: " + e.getMessage());
+        }
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * Typeahead: the top "limit" matches for "query", friends first, then friends of friends,
+     * each with the caller's friendship status
+     */
+    @PostMapping("/typeahead")
+    public Map<String, Object> typeahead(AuthenticatedUser principal, @RequestBody Map<String, Object> request) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            AuthenticatedUser currentUser = authenticatedUserService.resolve(principal, (String) request.get("csrid"));
+            if (currentUser == null) {
+                response.put("status", "error");
+                response.put("message", "Invalid or expired token");
+                return response;
             }
             
-            // Filter out current user
-            searchResults = searchResults.stream()
-                .filter(user -> !user.getId().equals(currentUser.getId()))
-                .collect(Collectors.toList());
-            
-            // Format results
-            List<Map<String, Object>> formattedResults = new ArrayList<>();
-            for (Users user : searchResults) {
-                Map<String, Object> userMap = new HashMap<>();
-                userMap.put("id", user.getId());
-                userMap.put("fullname", user.getFullname());
-                userMap.put("email", user.getEmail());
-                // Don't include password
-                
-                formattedResults.add(userMap);
-            }
+            String query = (String) request.get("query");
+            Integer limit = request.get("limit") != null ? Integer.valueOf(String.valueOf(request.get("limit"))) : null;
             
             response.put("status", "success");
-            response.put("users", formattedResults);
-            
+            response.put("users", peopleSearchService.typeahead(currentUser.getId(), query, limit));
         } catch (Exception e) {
             e.printStackTrace();
             response.put("status", "error");
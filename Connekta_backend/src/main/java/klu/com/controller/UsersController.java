@@ -1,18 +1,23 @@
 package klu.com.controller;
 
-import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import klu.com.model.AuthenticatedUser;
 import klu.com.model.Users;
 import klu.com.model.UsersManager;
+import klu.com.service.AuthenticatedUserService;
 
 @CrossOrigin(origins = "http://localhost:5173")
 @RestController
@@ -22,6 +27,9 @@ public class UsersController {
 	@Autowired
 	UsersManager UM;
 	
+	@Autowired
+	AuthenticatedUserService authenticatedUserService;
+	
 	@PostMapping("/signup")
 	public String insertUser(@RequestBody Users U) {
 		return UM.addUser(U);
@@ -32,6 +40,12 @@ public class UsersController {
 		return UM.login(U.getEmail(),U.getPassword());
 	}
 	
+	// Revokes the token in "csrid" on every node
+	@PostMapping("/logout")
+	public String logout(@RequestBody Map<String, String> data) {
+		return UM.logout(data.get("csrid"));
+	}
+	
 	@PostMapping("/getfullname")
 	public String getFullname(@RequestBody Map<String, String> data) {
 		return UM.getFullname(data.get("csrid"));
@@ -42,9 +56,26 @@ public class UsersController {
 		return UM.getUserId(data.get("csrid"));
 	}
 	
+	// With afterId and/or limit: one keyset page. Without: every user, streamed as one JSON array
 	@GetMapping("/all")
-	public List<Map<String, Object>> getAllUsers() {
-		return UM.getAllUsers();
+	public ResponseEntity<?> getAllUsers(@RequestParam(required = false) Long afterId,
+			@RequestParam(required = false) Integer limit) {
+		if (afterId != null || limit != null) {
+			return ResponseEntity.ok(UM.getUsersPage(afterId, limit));
+		}
+		StreamingResponseBody body = out -> UM.streamAllUsers(out);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+	}
+	
+	// Password hashing pool load and hash timings, for signed-in users only
+	// (the bearer header, or "csrid" as a query parameter)
+	@GetMapping("/hashing/stats")
+	public ResponseEntity<?> getHashingStats(AuthenticatedUser principal,
+			@RequestParam(value = "csrid", required = false) String token) {
+		if (authenticatedUserService.resolve(principal, token) == null) {
+			return ResponseEntity.status(401).body("Invalid token");
+		}
+		return ResponseEntity.ok(UM.getHashingStats());
 	}
 
 }
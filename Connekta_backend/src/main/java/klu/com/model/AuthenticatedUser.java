@@ -0,0 +1,37 @@
+package klu.com.model;
+
+/**
+ * The signed-in user as seen by request handlers: only the columns that authenticated
+ * endpoints need, so it can be cached instead of loading the Users row on every request.
+ */
+public final class AuthenticatedUser {
+    
+    private final Long id;
+    
+    private final String email;
+    
+    private final String fullname;
+    
+    public AuthenticatedUser(Long id, String email, String fullname) {
+        this.id = id;
+        this.email = email;
+        this.fullname = fullname;
+    }
+    
+    public Long getId() {
+        return id;
+    }
+    
+    public String getEmail() {
+        return email;
+    }
+    
+    public String getFullname() {
+        return fullname;
+    }
+    
+    @Override
+    public String toString() {
+        return "AuthenticatedUser [id=" + id + ", email=" + email + "]";
+    }
+}
@@ -4,9 +4,8 @@ import java.util.Date;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 import jakarta.persistence.Temporal;
 import jakarta.persistence.TemporalType;
@@ -15,14 +14,19 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Entity
-@Table(name = "chat_messages")
+@Table(name = "chat_messages", indexes = {
+    @Index(name = "idx_chat_messages_conversation", columnList = "conversation_key, id"),
+    @Index(name = "idx_chat_messages_sender", columnList = "sender_id, id"),
+    @Index(name = "idx_chat_messages_receiver", columnList = "receiver_id, id"),
+    @Index(name = "uk_chat_messages_client_key", columnList = "sender_id, client_message_key", unique = true)
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class ChatMessage {
     
+    // Assigned in-process by MessageIdGenerator; time-ordered, so it is the ordering key
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     
     @Column(name = "message_text", nullable = false)
@@ -34,10 +38,37 @@ public class ChatMessage {
     @Column(name = "receiver_id", nullable = false)
     private Long receiverId;
     
+    // Same value for both directions of a conversation, see conversationKey(Long, Long)
+    @Column(name = "conversation_key")
+    private Long conversationKey;
+    
     @Column(name = "read_status", nullable = false)
-    private int readStatus = 0; // 0 = unread, 1 = read
+    private int readStatus = 0; // 0 = unread, 1 = read; derived from the receiver's read watermark when served
     
     @Column(name = "timestamp", nullable = false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date timestamp = new Date();
+    
+    // Optional client-generated idempotency key, unique per sender
+    @Column(name = "client_message_key", length = 64)
+    private String clientMessageKey;
+    
+    public ChatMessage(Long id, String messageText, Long senderId, Long receiverId, Long conversationKey,
+            int readStatus, Date timestamp) {
+        this(id, messageText, senderId, receiverId, conversationKey, readStatus, timestamp, null);
+    }
+    
+    /**
+     * Canonical key of the conversation between two users: the smaller id in the high
+     * 32 bits, the larger in the low 32 bits. SQL equivalent:
+     * (LEAST(a, b) << 32) | GREATEST(a, b)
+     */
+    public static long conversationKey(Long userId1, Long userId2) {
+        long low = Math.min(userId1, userId2);
+        long high = Math.max(userId1, userId2);
+        if (low < 0 || high > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("User id out of range for a conversation key: " + userId1 + ", " + userId2);
+        }
+        return (low << 32) | high;
+    }
 }
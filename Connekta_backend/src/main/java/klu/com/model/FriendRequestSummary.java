@@ -0,0 +1,36 @@
+package klu.com.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * A friend request and the user on the other side of it, selected with one join
+ */
+public final class FriendRequestSummary {
+    
+    private final Long id;
+    
+    private final UserSummary user;
+    
+    private final LocalDateTime createdAt;
+    
+    public FriendRequestSummary(Long id, Long userId, String fullname, String email, LocalDateTime createdAt) {
+        this.id = id;
+        this.user = new UserSummary(userId, fullname, email);
+        this.createdAt = createdAt;
+    }
+    
+    public Long getId() {
+        return id;
+    }
+    
+    /**
+     * The sender of a received request, the receiver of a sent one
+     */
+    public UserSummary getUser() {
+        return user;
+    }
+    
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -2,11 +2,17 @@ package klu.com.model;
 
 import klu.com.repository.FriendsRepository;
 import klu.com.repository.UsersRepository;
+import klu.com.service.FriendGraph;
+import klu.com.service.FriendGraphService;
+import klu.com.service.PeopleSearchService;
+import klu.com.service.UserSearchService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -25,7 +31,16 @@ public class FriendsManager {
     private UsersRepository usersRepository;
     
     @Autowired
-    private JWTManager jwtManager;
+    private UserSearchService userSearchService;
+    
+    @Autowired
+    private PeopleSearchService peopleSearchService;
+    
+    @Autowired
+    private FriendGraphService friendGraphService;
+    
+    @Value("${friends.suggestions.limit:50}")
+    private int suggestionLimit;
     
     @Autowired
     private JdbcTemplate jdbcTemplate;
@@ -33,25 +48,15 @@ public class FriendsManager {
     /**
      * Send a friend request from one user to another
      */
-    public Map<String, Object> sendFriendRequest(String token, Long receiverId) {
+    public Map<String, Object> sendFriendRequest(AuthenticatedUser principal, Long receiverId) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String senderEmail = jwtManager.validateToken(token);
-        if (senderEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get sender user
-        Optional<Users> senderOpt = usersRepository.findByEmail(senderEmail);
-        if (senderOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "Sender user not found");
-            return response;
-        }
-        
         // Get receiver user
         Optional<Users> receiverOpt = usersRepository.findById(receiverId);
         if (receiverOpt.isEmpty()) {
@@ -60,7 +65,7 @@ public class FriendsManager {
             return response;
         }
         
-        Users sender = senderOpt.get();
+        Users sender = usersRepository.getReferenceById(principal.getId());
         Users receiver = receiverOpt.get();
         Long senderId = sender.getId();
         
@@ -103,6 +108,7 @@ public class FriendsManager {
                             String updateQuery = "UPDATE friends SET status = 'accepted', updated_at = NOW() " +
                                                 "WHERE id = ?";
                             jdbcTemplate.update(updateQuery, existingFriendship.get("id"));
+                            friendGraphService.friendshipStarted(senderId, receiverId);
                             
                             response.put("status", "success");
                             response.put("message", "Friend request accepted");
@@ -158,25 +164,15 @@ public class FriendsManager {
     /**
      * Accept a friend request
      */
-    public Map<String, Object> acceptFriendRequest(String token, Long requestId) {
+    public Map<String, Object> acceptFriendRequest(AuthenticatedUser principal, Long requestId) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String userEmail = jwtManager.validateToken(token);
-        if (userEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get user
-        Optional<Users> userOpt = usersRepository.findByEmail(userEmail);
-        if (userOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
         // Get friend request
         Optional<Friends> friendshipOpt = friendsRepository.findById(requestId);
         if (friendshipOpt.isEmpty()) {
@@ -186,7 +182,7 @@ public class FriendsManager {
         }
         
         Friends friendship = friendshipOpt.get();
-        Users user = userOpt.get();
+        Users user = usersRepository.getReferenceById(principal.getId());
         
         // Check if this user is the receiver of the request
         if (!friendship.getReceiver().getId().equals(user.getId())) {
@@ -205,6 +201,7 @@ public class FriendsManager {
         // Accept the request
         friendship.setStatus("accepted");
         friendsRepository.save(friendship);
+        friendGraphService.friendshipStarted(friendship.getSender().getId(), friendship.getReceiver().getId());
         
         response.put("status", "success");
         response.put("message", "Friend request accepted successfully");
@@ -214,25 +211,15 @@ public class FriendsManager {
     /**
      * Reject a friend request
      */
-    public Map<String, Object> rejectFriendRequest(String token, Long requestId) {
+    public Map<String, Object> rejectFriendRequest(AuthenticatedUser principal, Long requestId) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String userEmail = jwtManager.validateToken(token);
-        if (userEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get user
-        Optional<Users> userOpt = usersRepository.findByEmail(userEmail);
-        if (userOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
         // Get friend request
         Optional<Friends> friendshipOpt = friendsRepository.findById(requestId);
         if (friendshipOpt.isEmpty()) {
@@ -242,7 +229,7 @@ public class FriendsManager {
         }
         
         Friends friendship = friendshipOpt.get();
-        Users user = userOpt.get();
+        Users user = usersRepository.getReferenceById(principal.getId());
         
         // Check if this user is the receiver of the request
         if (!friendship.getReceiver().getId().equals(user.getId())) {
@@ -270,25 +257,15 @@ public class FriendsManager {
     /**
      * Remove a friend
      */
-    public Map<String, Object> removeFriend(String token, Long friendId) {
+    public Map<String, Object> removeFriend(AuthenticatedUser principal, Long friendId) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String userEmail = jwtManager.validateToken(token);
-        if (userEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get user
-        Optional<Users> userOpt = usersRepository.findByEmail(userEmail);
-        if (userOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
         // Get friend
         Optional<Users> friendOpt = usersRepository.findById(friendId);
         if (friendOpt.isEmpty()) {
@@ -297,7 +274,7 @@ public class FriendsManager {
             return response;
         }
         
-        Users user = userOpt.get();
+        Users user = usersRepository.getReferenceById(principal.getId());
         Users friend = friendOpt.get();
         
         // Check if they are friends
@@ -310,6 +287,7 @@ public class FriendsManager {
         
         // Remove friendship
         friendsRepository.delete(friendshipOpt.get());
+        friendGraphService.friendshipEnded(user.getId(), friendId);
         
         response.put("status", "success");
         response.put("message", "Friend removed successfully");
@@ -319,25 +297,15 @@ public class FriendsManager {
     /**
      * Block a user
      */
-    public Map<String, Object> blockUser(String token, Long userId) {
+    public Map<String, Object> blockUser(AuthenticatedUser principal, Long userId) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String blockerEmail = jwtManager.validateToken(token);
-        if (blockerEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get blocker user
-        Optional<Users> blockerOpt = usersRepository.findByEmail(blockerEmail);
-        if (blockerOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
         // Get target user
         Optional<Users> targetOpt = usersRepository.findById(userId);
         if (targetOpt.isEmpty()) {
@@ -346,7 +314,7 @@ public class FriendsManager {
             return response;
         }
         
-        Users blocker = blockerOpt.get();
+        Users blocker = usersRepository.getReferenceById(principal.getId());
         Users target = targetOpt.get();
         
         // Check if users are the same
@@ -366,6 +334,7 @@ public class FriendsManager {
             relationship.setReceiver(target);
             relationship.setStatus("blocked");
             friendsRepository.save(relationship);
+            friendGraphService.friendshipEnded(blocker.getId(), target.getId());
         } else {
             // Create new blocked relationship
             Friends blockedRelationship = new Friends(blocker, target, "blocked");
@@ -380,25 +349,15 @@ public class FriendsManager {
     /**
      * Unblock a user
      */
-    public Map<String, Object> unblockUser(String token, Long userId) {
+    public Map<String, Object> unblockUser(AuthenticatedUser principal, Long userId) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String unblockerEmail = jwtManager.validateToken(token);
-        if (unblockerEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get unblocker user
-        Optional<Users> unblockerOpt = usersRepository.findByEmail(unblockerEmail);
-        if (unblockerOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
         // Get target user
         Optional<Users> targetOpt = usersRepository.findById(userId);
         if (targetOpt.isEmpty()) {
@@ -407,7 +366,7 @@ public class FriendsManager {
             return response;
         }
         
-        Users unblocker = unblockerOpt.get();
+        Users unblocker = usersRepository.getReferenceById(principal.getId());
         Users target = targetOpt.get();
         
         // Check if relationship exists and is blocked
@@ -429,40 +388,22 @@ public class FriendsManager {
     /**
      * Get all friends of current user
      */
-    public Map<String, Object> getFriends(String token) {
+    public Map<String, Object> getFriends(AuthenticatedUser principal) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String userEmail = jwtManager.validateToken(token);
-        if (userEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get user
-        Optional<Users> userOpt = usersRepository.findByEmail(userEmail);
-        if (userOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
-        Users user = userOpt.get();
-        
-        // Get friends
-        List<Users> friends = friendsRepository.findAllFriends(user);
+        // Get friends from the friend graph, then only their id, fullname and email
+        List<Long> friendIds = toList(friendGraphService.getFriendIds(principal.getId()));
+        List<UserSummary> friends = friendIds.isEmpty() ? new ArrayList<>() : usersRepository.findSummariesByIdIn(friendIds);
         
         // Format friend data
         List<Map<String, Object>> friendsData = friends.stream()
-            .map(friend -> {
-                Map<String, Object> friendData = new HashMap<>();
-                friendData.put("id", friend.getId());
-                friendData.put("fullname", friend.getFullname());
-                friendData.put("email", friend.getEmail());
-                // Don't include password
-                return friendData;
-            })
+            .map(UserSummary::toMap)
             .collect(Collectors.toList());
         
         response.put("status", "success");
@@ -473,29 +414,17 @@ public class FriendsManager {
     /**
      * Get all pending friend requests received by current user
      */
-    public Map<String, Object> getPendingRequests(String token) {
+    public Map<String, Object> getPendingRequests(AuthenticatedUser principal) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String userEmail = jwtManager.validateToken(token);
-        if (userEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get user
-        Optional<Users> userOpt = usersRepository.findByEmail(userEmail);
-        if (userOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
-        Users user = userOpt.get();
-        
-        // Get pending requests
-        List<Friends> pendingRequests = friendsRepository.findByReceiverAndStatus(user, "pending");
+        // Get pending requests, with the sender joined in the same query
+        List<FriendRequestSummary> pendingRequests = friendsRepository.findReceivedRequestSummaries(principal.getId(), "pending");
         
         // Format request data
         List<Map<String, Object>> requestsData = pendingRequests.stream()
@@ -503,9 +432,9 @@ public class FriendsManager {
                 Map<String, Object> requestData = new HashMap<>();
                 requestData.put("id", request.getId());
                 requestData.put("sender", Map.of(
-                    "id", request.getSender().getId(),
-                    "fullname", request.getSender().getFullname(),
-                    "email", request.getSender().getEmail()
+                    "id", request.getUser().getId(),
+                    "fullname", request.getUser().getFullname(),
+                    "email", request.getUser().getEmail()
                 ));
                 requestData.put("createdAt", request.getCreatedAt().toString());
                 return requestData;
@@ -520,29 +449,17 @@ public class FriendsManager {
     /**
      * Get all sent friend requests by current user
      */
-    public Map<String, Object> getSentRequests(String token) {
+    public Map<String, Object> getSentRequests(AuthenticatedUser principal) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String userEmail = jwtManager.validateToken(token);
-        if (userEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get user
-        Optional<Users> userOpt = usersRepository.findByEmail(userEmail);
-        if (userOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
-        Users user = userOpt.get();
-        
-        // Get sent requests
-        List<Friends> sentRequests = friendsRepository.findBySenderAndStatus(user, "pending");
+        // Get sent requests, with the receiver joined in the same query
+        List<FriendRequestSummary> sentRequests = friendsRepository.findSentRequestSummaries(principal.getId(), "pending");
         
         // Format request data
         List<Map<String, Object>> requestsData = sentRequests.stream()
@@ -550,9 +467,9 @@ public class FriendsManager {
                 Map<String, Object> requestData = new HashMap<>();
                 requestData.put("id", request.getId());
                 requestData.put("receiver", Map.of(
-                    "id", request.getReceiver().getId(),
-                    "fullname", request.getReceiver().getFullname(),
-                    "email", request.getReceiver().getEmail()
+                    "id", request.getUser().getId(),
+                    "fullname", request.getUser().getFullname(),
+                    "email", request.getUser().getEmail()
                 ));
                 requestData.put("createdAt", request.getCreatedAt().toString());
                 return requestData;
@@ -567,49 +484,34 @@ public class FriendsManager {
     /**
      * Search for users who are not already friends with current user
      */
-    public Map<String, Object> searchUsers(String token, String query) {
+    public Map<String, Object> searchUsers(AuthenticatedUser principal, String query) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String userEmail = jwtManager.validateToken(token);
-        if (userEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get current user
-        Optional<Users> currentUserOpt = usersRepository.findByEmail(userEmail);
-        if (currentUserOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
-        Users currentUser = currentUserOpt.get();
-        
-        // Get all users that match the query
-        // This is a simplified search - in production you might want more complex logic
-        List<Users> allUsers = usersRepository.findByFullnameContainingIgnoreCase(query);
+        // Get the users that match the query from the search index
+        List<Map<String, Object>> matches = userSearchService.search(query, principal.getId(), UserSearchService.MAX_LIMIT);
         
-        // Get current user's friends
-        List<Users> friends = friendsRepository.findAllFriends(currentUser);
+        // Get current user's friends (sorted)
+        long[] friendIds = friendGraphService.getFriendIds(principal.getId());
         
-        // Filter out current user and existing friends
-        List<Map<String, Object>> filteredUsers = allUsers.stream()
-            .filter(user -> !user.getId().equals(currentUser.getId()) && !friends.contains(user))
-            .map(user -> {
-                Map<String, Object> userData = new HashMap<>();
-                userData.put("id", user.getId());
-                userData.put("fullname", user.getFullname());
-                userData.put("email", user.getEmail());
-                // Check if there's a pending request
-                Optional<Friends> pendingRequest = friendsRepository.findBySenderAndReceiver(currentUser, user);
-                userData.put("requestSent", pendingRequest.isPresent() && "pending".equals(pendingRequest.get().getStatus()));
-                return userData;
-            })
+        // Filter out existing friends (the index already leaves out the current user)
+        List<Map<String, Object>> filteredUsers = matches.stream()
+            .filter(match -> Arrays.binarySearch(friendIds, (Long) match.get("id")) < 0)
             .collect(Collectors.toList());
         
+        // Check for pending requests to all of them in one query
+        List<Long> matchIds = filteredUsers.stream().map(match -> (Long) match.get("id")).collect(Collectors.toList());
+        Map<Long, PeopleSearchService.Relationship> relationships = peopleSearchService.getRelationships(principal.getId(), matchIds);
+        for (Map<String, Object> userData : filteredUsers) {
+            PeopleSearchService.Relationship relationship = relationships.get((Long) userData.get("id"));
+            userData.put("requestSent", relationship != null && relationship.isPendingFrom(principal.getId()));
+        }
+        
         response.put("status", "success");
         response.put("users", filteredUsers);
         return response;
@@ -618,61 +520,41 @@ public class FriendsManager {
     /**
      * Get friend suggestions (friends of friends)
      */
-    public Map<String, Object> getFriendSuggestions(String token) {
+    public Map<String, Object> getFriendSuggestions(AuthenticatedUser principal) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String userEmail = jwtManager.validateToken(token);
-        if (userEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get user
-        Optional<Users> userOpt = usersRepository.findByEmail(userEmail);
-        if (userOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
+        // Friends of friends who are not friends yet, most mutual friends first
+        List<FriendGraph.Suggestion> suggestions = friendGraphService.getSuggestions(principal.getId(), suggestionLimit);
         
-        Users currentUser = userOpt.get();
-        
-        // Get user's direct friends
-        List<Users> directFriends = friendsRepository.findAllFriends(currentUser);
+        // Check if the current user has pending requests with any suggestion
+        Set<Long> pendingReceivers = new HashSet<>(friendsRepository.findReceiverIds(principal.getId(), "pending"));
         
-        // Get friends of friends (potential suggestions)
-        Set<Users> friendSuggestions = new HashSet<>();
-        for (Users friend : directFriends) {
-            List<Users> friendsOfFriend = friendsRepository.findAllFriends(friend);
-            friendSuggestions.addAll(friendsOfFriend);
+        List<Long> suggestionIds = suggestions.stream().map(FriendGraph.Suggestion::getUserId).collect(Collectors.toList());
+        Map<Long, UserSummary> summaries = new HashMap<>();
+        if (!suggestionIds.isEmpty()) {
+            for (UserSummary summary : usersRepository.findSummariesByIdIn(suggestionIds)) {
+                summaries.put(summary.getId(), summary);
+            }
         }
         
-        // Remove the current user from suggestions
-        friendSuggestions.remove(currentUser);
-        
-        // Remove direct friends from suggestions (since they're already friends)
-        friendSuggestions.removeAll(directFriends);
-        
-        // Check if the current user has pending requests with any suggestion
-        List<Friends> sentRequests = friendsRepository.findBySenderAndStatus(currentUser, "pending");
-        List<Users> pendingReceivers = sentRequests.stream()
-            .map(Friends::getReceiver)
-            .collect(Collectors.toList());
-        
         // Format suggestion data
-        List<Map<String, Object>> suggestionsData = friendSuggestions.stream()
-            .map(user -> {
-                Map<String, Object> userData = new HashMap<>();
-                userData.put("id", user.getId());
-                userData.put("fullname", user.getFullname());
-                userData.put("email", user.getEmail());
+        List<Map<String, Object>> suggestionsData = suggestions.stream()
+            .filter(suggestion -> summaries.containsKey(suggestion.getUserId()))
+            .map(suggestion -> {
+                UserSummary user = summaries.get(suggestion.getUserId());
+                Map<String, Object> userData = user.toMap();
+                userData.put("mutualFriends", suggestion.getMutualFriends());
                 // Add avatar URL if available (using default for now)
                 userData.put("avatar", "https://randomuser.me/api/portraits/" + 
                     (Math.random() > 0.5 ? "men" : "women") + "/" + 
                     (int)(Math.random() * 100) + ".jpg");
-                userData.put("requestSent", pendingReceivers.contains(user));
+                userData.put("requestSent", pendingReceivers.contains(user.getId()));
                 return userData;
             })
             .collect(Collectors.toList());
@@ -685,26 +567,16 @@ public class FriendsManager {
     /**
      * Check friendship status between current user and another user
      */
-    public Map<String, Object> checkFriendshipStatus(String token, Long otherUserId) {
+    public Map<String, Object> checkFriendshipStatus(AuthenticatedUser principal, Long otherUserId) {
         Map<String, Object> response = new HashMap<>();
         
-        // Validate token
-        String userEmail = jwtManager.validateToken(token);
-        if (userEmail.equals("401")) {
+        if (principal == null) {
             response.put("status", "error");
             response.put("message", "Invalid or expired token");
             return response;
         }
         
-        // Get current user
-        Optional<Users> currentUserOpt = usersRepository.findByEmail(userEmail);
-        if (currentUserOpt.isEmpty()) {
-            response.put("status", "error");
-            response.put("message", "User not found");
-            return response;
-        }
-        
-        Users currentUser = currentUserOpt.get();
+        Users currentUser = usersRepository.getReferenceById(principal.getId());
         Long currentUserId = currentUser.getId();
         
         try {
@@ -722,11 +594,13 @@ public class FriendsManager {
             if (results.isEmpty()) {
                 response.put("status", "success");
                 response.put("friendshipStatus", "none");
+                response.put("mutualFriends", friendGraphService.getMutualFriendCount(currentUserId, otherUserId));
             } else {
                 Map<String, Object> friendship = results.get(0);
                 String status = (String) friendship.get("status");
                 response.put("status", "success");
                 response.put("friendshipStatus", status);
+                response.put("mutualFriends", friendGraphService.getMutualFriendCount(currentUserId, otherUserId));
                 
                 // Include additional info for pending requests
                 if ("pending".equals(status)) {
@@ -741,4 +615,12 @@ public class FriendsManager {
         
         return response;
     }
+    
+    private static List<Long> toList(long[] ids) {
+        List<Long> list = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
 }
@@ -1,27 +1,54 @@
 package klu.com.model;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.SecretKey;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import klu.com.service.TokenRevocationService;
 
 @Service
 public class JWTManager {
 	public final String SEC_KEY="ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890IJKLMNOPQRSTU";
 	  public final SecretKey key = Keys.hmacShaKeyFor(SEC_KEY.getBytes());
+	  // Built once: the parser is immutable and safe to share between request threads
+	  private final JwtParser parser = Jwts.parserBuilder().setSigningKey(key).build();
+	  // Tokens whose signature was already verified, keyed by SHA-256 of the token and dropped at the token's expiry
+	  private final Map<ByteBuffer, VerifiedToken> verified = new ConcurrentHashMap<>();
+	  private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+		  try {
+			  return MessageDigest.getInstance("SHA-256");
+		  } catch (NoSuchAlgorithmException e) {
+			  throw new IllegalStateException(e);
+		  }
+	  });
+	  @Value("${jwt.cache.max-entries:10000}")
+	  private int maxCachedTokens = 10000;
+	  @Autowired
+	  private TokenRevocationService tokenRevocationService;
 	  public String generateToken(String email)
 	  {
 		  Map<String, String> data =new HashMap<String,String>();
 		  data.put("email", email);
 		  return Jwts.builder()
 				  .setClaims(data)
+				  .setId(UUID.randomUUID().toString())
 				  .setIssuedAt(new Date())
 				  .setExpiration(new Date(new Date().getTime() + 86400000))
 			        .signWith(key)
@@ -29,16 +56,83 @@ public class JWTManager {
 				  
 	  }
 	  public String validateToken(String token) {
-		  Claims claims=Jwts.parserBuilder()
-				  .setSigningKey(key)
-				  .build()
-				  .parseClaimsJws(token)
-				  .getBody();
+		  ByteBuffer cacheKey = token == null ? null : cacheKey(token);
+		  if(cacheKey != null) {
+			  VerifiedToken cached = verified.get(cacheKey);
+			  if(cached != null) {
+				  if(cached.expiresAt > System.currentTimeMillis()) {
+					  return tokenRevocationService.isRevoked(cached.jti) ? "401" : cached.email;
+				  }
+				  // Expired: fall through so the parser reports it exactly as before
+				  verified.remove(cacheKey);
+			  }
+		  }
+		  Claims claims=parser.parseClaimsJws(token).getBody();
 		  Date expiry = claims.getExpiration();
 		  if(expiry == null || expiry.before(new Date())) {
 			  return "401";
 		  }
-		  return claims.get("email",String.class);
+		  String email = claims.get("email",String.class);
+		  if(cacheKey != null && email != null) {
+			  remember(cacheKey, new VerifiedToken(email, claims.getId(), expiry.getTime()));
+		  }
+		  if(tokenRevocationService.isRevoked(claims.getId())) {
+			  return "401";
+		  }
+		  return email;
+		  
+	  }
+	  
+	  /**
+	   * Revokes a valid token for the rest of its lifetime (logout).
+	   * Returns false for tokens that are already expired or carry no id (issued before revocation existed).
+	   */
+	  public boolean revokeToken(String token) {
+		  Claims claims=parser.parseClaimsJws(token).getBody();
+		  Date expiry = claims.getExpiration();
+		  if(claims.getId() == null || expiry == null || expiry.before(new Date())) {
+			  return false;
+		  }
+		  tokenRevocationService.revoke(claims.getId(), expiry.getTime());
+		  return true;
+	  }
+	  
+	  /** Drops cached tokens that have expired. */
+	  @Scheduled(fixedDelay = 60000)
+	  public void evictExpired() {
+		  long now = System.currentTimeMillis();
+		  verified.values().removeIf(entry -> entry.expiresAt <= now);
+	  }
+	  
+	  /** Number of verified tokens currently cached. */
+	  public int getCachedTokenCount() {
+		  return verified.size();
+	  }
+	  
+	  private void remember(ByteBuffer cacheKey, VerifiedToken entry) {
+		  if(verified.size() >= maxCachedTokens) {
+			  evictExpired();
+			  if(verified.size() >= maxCachedTokens) {
+				  // Still full of live tokens: start over rather than track recency on every hit
+				  verified.clear();
+			  }
+		  }
+		  verified.put(cacheKey, entry);
+	  }
+	  
+	  private static ByteBuffer cacheKey(String token) {
+		  return ByteBuffer.wrap(SHA256.get().digest(token.getBytes(StandardCharsets.UTF_8)));
+	  }
+	  
+	  private static final class VerifiedToken {
+		  final String email;
+		  final String jti;
+		  final long expiresAt;
 		  
+		  VerifiedToken(String email, String jti, long expiresAt) {
+			  this.email = email;
+			  this.jti = jti;
+			  this.expiresAt = expiresAt;
+		  }
 	  }
 }
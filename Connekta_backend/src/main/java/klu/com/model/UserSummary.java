@@ -0,0 +1,46 @@
+package klu.com.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Id, fullname and email of a user, selected directly by projection queries so that read
+ * paths neither load the password hash nor put Users entities into the persistence context.
+ */
+public final class UserSummary {
+    
+    private final Long id;
+    
+    private final String fullname;
+    
+    private final String email;
+    
+    public UserSummary(Long id, String fullname, String email) {
+        this.id = id;
+        this.fullname = fullname;
+        this.email = email;
+    }
+    
+    public Long getId() {
+        return id;
+    }
+    
+    public String getFullname() {
+        return fullname;
+    }
+    
+    public String getEmail() {
+        return email;
+    }
+    
+    /**
+     * The "id", "fullname" and "email" map the API returns for a user
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", id);
+        data.put("fullname", fullname);
+        data.put("email", email);
+        return data;
+    }
+}
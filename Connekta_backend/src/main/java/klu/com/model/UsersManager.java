@@ -1,20 +1,26 @@
 package klu.com.model;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import klu.com.repository.UsersRepository;
+import klu.com.service.UserListingService;
+import klu.com.service.UserSearchService;
 import klu.com.util.PasswordEncoder;
+import klu.com.util.PasswordEncoder.HashingBusyException;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.Optional;
 
 @Service
 public class UsersManager {
 
+    private static final Logger logger = LoggerFactory.getLogger(UsersManager.class);
+
     @Autowired
     private UsersRepository usersRepo;
     
@@ -26,6 +32,12 @@ public class UsersManager {
     
     @Autowired
     private PasswordEncoder passwordEncoder;
+    
+    @Autowired
+    private UserSearchService userSearchService;
+    
+    @Autowired
+    private UserListingService userListingService;
 
     public String addUser(Users user) {
         try {
@@ -39,7 +51,10 @@ public class UsersManager {
             user.setPassword(encryptedPassword);
             
             usersRepo.save(user);
+            userSearchService.indexUser(user);
             return "User Added Successfully";
+        } catch (HashingBusyException e) {
+            return "Server busy. Please try again.";
         } catch (Exception e) {
             e.printStackTrace();
             return "Error adding user: " + e.getMessage();
@@ -54,14 +69,47 @@ public class UsersManager {
             Users user = userOpt.get();
             
             // Verify password match using BCrypt
-            if (passwordEncoder.matches(password, user.getPassword())) {
-                String token = JM.generateToken(email);
-                return token;
+            try {
+                if (passwordEncoder.matches(password, user.getPassword())) {
+                    rehashIfNeeded(user, password);
+                    String token = JM.generateToken(email);
+                    return token;
+                }
+            } catch (HashingBusyException e) {
+                return "503::Server Busy";
             }
         }
         
         return "401::Invalid Credentials";
     }
+    
+    /**
+     * Moves a hash made with an older BCrypt cost to the configured one, in the background.
+     * Only replaces the hash that was just verified, so a concurrent password change wins.
+     */
+    private void rehashIfNeeded(Users user, String password) {
+        if (!passwordEncoder.needsRehash(user.getPassword())) {
+            return;
+        }
+        String oldHash = user.getPassword();
+        try {
+            passwordEncoder.encodeAsync(password)
+                .thenAccept(newHash ->
+                    jdbcTemplate.update("UPDATE users SET password = ? WHERE id = ? AND password = ?",
+                        newHash, user.getId(), oldHash))
+                .exceptionally(e -> {
+                    // The old hash keeps working; the upgrade is tried again on a later login
+                    logger.warn("Could not upgrade the password hash of user {}", user.getId(), e);
+                    return null;
+                });
+        } catch (HashingBusyException e) {
+            // Pool is saturated; the hash is upgraded on a later login
+        }
+    }
+    
+    public Map<String, Object> getHashingStats() {
+        return passwordEncoder.getStats();
+    }
 
     public String getFullname(String token) {
         String email = JM.validateToken(token);
@@ -72,6 +120,14 @@ public class UsersManager {
         return U.getFullname();
     }
 
+    public String logout(String token) {
+        try {
+            return JM.revokeToken(token) ? "Logged Out" : "401::Token Expired";
+        } catch (Exception e) {
+            return "401::Invalid Token";
+        }
+    }
+
     public String getUserId(String token) {
         String email = JM.validateToken(token);
         if (email.compareTo("401") == 0) {
@@ -83,19 +139,17 @@ public class UsersManager {
         return String.valueOf(U.getId());
     }
     
-    public List<Map<String, Object>> getAllUsers() {
-        List<Users> usersList = usersRepo.findAll();
-        List<Map<String, Object>> usersData = new ArrayList<>();
-        
-        for (Users user : usersList) {
-            Map<String, Object> userData = new HashMap<>();
-            userData.put("user_id", user.getId());
-            userData.put("fullname", user.getFullname());
-            userData.put("email", user.getEmail());
-            // Don't include sensitive information like password
-            usersData.add(userData);
-        }
-        
-        return usersData;
+    /**
+     * Every user as a JSON array of {user_id, fullname, email}, streamed from the table
+     */
+    public void streamAllUsers(OutputStream out) throws IOException {
+        userListingService.streamUsers(out, null, "user_id", null);
+    }
+    
+    /**
+     * One keyset page of {user_id, fullname, email}, plus nextAfterId and hasMore
+     */
+    public Map<String, Object> getUsersPage(Long afterId, Integer limit) {
+        return userListingService.getPage(afterId, limit, null, "user_id");
     }
 }
@@ -1,30 +1,11 @@
 package klu.com.repository;
 
-import java.util.List;
-
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
 
 import klu.com.model.ChatMessage;
 
+// Chat reads and writes go through ChatMessageService (JdbcTemplate + ChatMessageRowMapper)
 @Repository
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
-    
-    @Query("SELECT m FROM ChatMessage m WHERE " +
-           "(m.senderId = :userId1 AND m.receiverId = :userId2) OR " +
-           "(m.senderId = :userId2 AND m.receiverId = :userId1) " +
-           "ORDER BY m.timestamp ASC")
-    List<ChatMessage> findMessagesBetweenUsers(
-        @Param("userId1") Long userId1, 
-        @Param("userId2") Long userId2
-    );
-    
-    @Modifying
-    @Transactional
-    @Query("UPDATE ChatMessage m SET m.readStatus = 1 WHERE m.senderId = :senderId AND m.receiverId = :receiverId AND m.readStatus = 0")
-    int markMessagesAsRead(@Param("senderId") Long senderId, @Param("receiverId") Long receiverId);
 }
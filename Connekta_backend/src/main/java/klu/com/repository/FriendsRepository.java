@@ -1,5 +1,6 @@
 package klu.com.repository;
 
+import klu.com.model.FriendRequestSummary;
 import klu.com.model.Friends;
 import klu.com.model.Users;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -7,6 +8,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -33,15 +35,38 @@ public interface FriendsRepository extends JpaRepository<Friends, Long> {
     @Query("SELECT f FROM Friends f WHERE (f.sender = :user OR f.receiver = :user) AND f.status = 'accepted'")
     List<Friends> findAcceptedFriendships(@Param("user") Users user);
     
-    // Find all friends of a user (returns Users objects directly)
-    @Query("SELECT f.receiver FROM Friends f WHERE f.sender = :user AND f.status = 'accepted' " +
-           "UNION " +
-           "SELECT f.sender FROM Friends f WHERE f.receiver = :user AND f.status = 'accepted'")
-    List<Users> findAllFriends(@Param("user") Users user);
-    
     // Check if two users are friends
     @Query("SELECT COUNT(f) > 0 FROM Friends f WHERE " +
            "((f.sender = :user1 AND f.receiver = :user2) OR (f.sender = :user2 AND f.receiver = :user1)) " +
            "AND f.status = 'accepted'")
     boolean areFriends(@Param("user1") Users user1, @Param("user2") Users user2);
+    
+    // Ids of a user's friends, without loading any Users rows
+    @Query("SELECT CASE WHEN f.sender.id = :userId THEN f.receiver.id ELSE f.sender.id END FROM Friends f " +
+           "WHERE (f.sender.id = :userId OR f.receiver.id = :userId) AND f.status = 'accepted'")
+    List<Long> findFriendIds(@Param("userId") Long userId);
+    
+    // Sender and receiver ids of every accepted friendship of any of the given users
+    @Query("SELECT f.sender.id, f.receiver.id FROM Friends f WHERE " +
+           "(f.sender.id IN :userIds OR f.receiver.id IN :userIds) AND f.status = 'accepted'")
+    List<Object[]> findAcceptedPairsOf(@Param("userIds") Collection<Long> userIds);
+    
+    // Sender id, receiver id and status of every relationship between a user and any of the others
+    @Query("SELECT f.sender.id, f.receiver.id, f.status FROM Friends f WHERE " +
+           "(f.sender.id = :userId AND f.receiver.id IN :otherIds) OR (f.receiver.id = :userId AND f.sender.id IN :otherIds)")
+    List<Object[]> findRelationships(@Param("userId") Long userId, @Param("otherIds") Collection<Long> otherIds);
+    
+    // Requests a user received, with the sender's id, fullname and email from one join
+    @Query("SELECT new klu.com.model.FriendRequestSummary(f.id, s.id, s.fullname, s.email, f.createdAt) " +
+           "FROM Friends f JOIN f.sender s WHERE f.receiver.id = :userId AND f.status = :status")
+    List<FriendRequestSummary> findReceivedRequestSummaries(@Param("userId") Long userId, @Param("status") String status);
+    
+    // Requests a user sent, with the receiver's id, fullname and email from one join
+    @Query("SELECT new klu.com.model.FriendRequestSummary(f.id, r.id, r.fullname, r.email, f.createdAt) " +
+           "FROM Friends f JOIN f.receiver r WHERE f.sender.id = :userId AND f.status = :status")
+    List<FriendRequestSummary> findSentRequestSummaries(@Param("userId") Long userId, @Param("status") String status);
+    
+    // Ids of the users a user sent requests with this status to
+    @Query("SELECT f.receiver.id FROM Friends f WHERE f.sender.id = :userId AND f.status = :status")
+    List<Long> findReceiverIds(@Param("userId") Long userId, @Param("status") String status);
 }
@@ -1,5 +1,6 @@
 package klu.com.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -8,6 +9,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import klu.com.model.UserSummary;
 import klu.com.model.Users;
 
 @Repository
@@ -20,4 +22,12 @@ public interface UsersRepository extends JpaRepository<Users, Long> {
     List<Users> findByFullnameContainingIgnoreCase(String fullname);
 
     List<Users> findByFullnameContainingIgnoreCaseOrEmailContainingIgnoreCase(String fullname, String email);
+
+    // Id, fullname and email only, never the password hash
+    @Query("SELECT new klu.com.model.UserSummary(u.id, u.fullname, u.email) FROM Users u WHERE u.id IN :ids")
+    List<UserSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT new klu.com.model.UserSummary(u.id, u.fullname, u.email) FROM Users u " +
+           "WHERE LOWER(u.fullname) LIKE LOWER(CONCAT('%', :query, '%')) OR LOWER(u.email) LIKE LOWER(CONCAT('%', :query, '%'))")
+    List<UserSummary> searchSummaries(@Param("query") String query);
 }
@@ -0,0 +1,70 @@
+package klu.com.service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import klu.com.model.AuthenticatedUser;
+import klu.com.model.JWTManager;
+import klu.com.model.Users;
+import klu.com.repository.UsersRepository;
+
+/**
+ * Turns a JWT into the caller's AuthenticatedUser.
+ * Principals are cached by email, so after the first request a user is resolved without
+ * touching the users table (emails never change and users are never deleted).
+ */
+@Service
+public class AuthenticatedUserService {
+    
+    @Autowired
+    private JWTManager jwtManager;
+    
+    @Autowired
+    private UsersRepository usersRepository;
+    
+    @Value("${auth.principal-cache.max-entries:10000}")
+    private int maxEntries;
+    
+    private final Map<String, AuthenticatedUser> principalsByEmail = new ConcurrentHashMap<>();
+    
+    /**
+     * The user a token belongs to, or null when the token is missing or expired or the user
+     * does not exist. A token with a bad signature throws, as JWTManager.validateToken does.
+     */
+    public AuthenticatedUser resolve(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        String email = jwtManager.validateToken(token);
+        if ("401".equals(email)) {
+            return null;
+        }
+        AuthenticatedUser principal = principalsByEmail.get(email);
+        if (principal == null) {
+            Optional<Users> userOpt = usersRepository.findByEmail(email);
+            if (userOpt.isEmpty()) {
+                return null;
+            }
+            Users user = userOpt.get();
+            principal = new AuthenticatedUser(user.getId(), user.getEmail(), user.getFullname());
+            if (principalsByEmail.size() >= maxEntries) {
+                principalsByEmail.clear();
+            }
+            principalsByEmail.put(email, principal);
+        }
+        return principal;
+    }
+    
+    /**
+     * The principal resolved from the Authorization header by JwtAuthenticationFilter, or
+     * else the user of the legacy "csrid" token from the request body.
+     */
+    public AuthenticatedUser resolve(AuthenticatedUser principal, String token) {
+        return principal != null ? principal : resolve(token);
+    }
+}
@@ -0,0 +1,427 @@
+package klu.com.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import klu.com.model.ChatMessage;
+
+/**
+ * Cold storage for old chat messages.
+ * The archive job moves messages older than chat.archive.max-age-days out of chat_messages,
+ * in id order, into append-only segment files on local disk. Each segment holds one
+ * deflate-compressed block per conversation, and its .idx file lists the blocks by
+ * conversation key, so a history read only inflates the blocks of its own conversation.
+ * Because ids grow with time, everything up to chat_archive_state.archived_up_to is
+ * archived and everything above it is still in the table.
+ */
+@Service
+public class ChatArchiveService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ChatArchiveService.class);
+    
+    private static final int INDEX_MAGIC = 0x43484958; // "CHIX"
+    private static final int INDEX_VERSION = 1;
+    
+    @Value("${chat.archive.enabled:false}")
+    private boolean enabled;
+    
+    @Value("${chat.archive.dir:chat-archive}")
+    private String archiveDir;
+    
+    @Value("${chat.archive.max-age-days:180}")
+    private int maxAgeDays;
+    
+    @Value("${chat.archive.batch-size:5000}")
+    private int batchSize;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    // Blocks per conversation key, oldest first
+    private final Map<Long, List<Block>> blocksByConversation = new ConcurrentHashMap<>();
+    
+    private volatile long archivedUpTo;
+    
+    private Path directory;
+    
+    @PostConstruct
+    public void init() throws IOException {
+        directory = Paths.get(archiveDir);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        
+        // Leftovers of a segment that was never completed
+        try (DirectoryStream<Path> tmp = Files.newDirectoryStream(directory, "*.tmp")) {
+            for (Path file : tmp) {
+                Files.delete(file);
+            }
+        }
+        
+        List<Path> indexes = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.idx")) {
+            files.forEach(indexes::add);
+        }
+        // Segment names are zero-padded last ids, so name order is id order
+        Collections.sort(indexes);
+        for (Path index : indexes) {
+            loadSegment(index);
+        }
+        logger.info("Loaded {} chat archive segments up to message {}", indexes.size(), archivedUpTo);
+    }
+    
+    /**
+     * Highest archived message id (0 when nothing is archived)
+     */
+    public long getArchivedUpTo() {
+        return archivedUpTo;
+    }
+    
+    /**
+     * Whether any message of the conversation has been archived
+     */
+    public boolean hasMessages(long conversationKey) {
+        return blocksByConversation.containsKey(conversationKey);
+    }
+    
+    /**
+     * Archived messages of a conversation older than beforeId, newest first
+     */
+    public List<ChatMessage> readBefore(long conversationKey, long beforeId, int limit) {
+        List<ChatMessage> result = new ArrayList<>();
+        List<Block> blocks = blocksByConversation.getOrDefault(conversationKey, List.of());
+        
+        for (int i = blocks.size() - 1; i >= 0 && result.size() < limit; i--) {
+            Block block = blocks.get(i);
+            if (block.minId >= beforeId) {
+                continue;
+            }
+            List<ChatMessage> messages = readBlock(block);
+            for (int j = messages.size() - 1; j >= 0 && result.size() < limit; j--) {
+                if (messages.get(j).getId() < beforeId) {
+                    result.add(messages.get(j));
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Archived messages of a conversation newer than afterId, oldest first
+     */
+    public List<ChatMessage> readAfter(long conversationKey, long afterId, int limit) {
+        List<ChatMessage> result = new ArrayList<>();
+        if (afterId >= archivedUpTo) {
+            return result;
+        }
+        
+        for (Block block : blocksByConversation.getOrDefault(conversationKey, List.of())) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (block.maxId <= afterId) {
+                continue;
+            }
+            for (ChatMessage message : readBlock(block)) {
+                if (message.getId() > afterId && result.size() < limit) {
+                    result.add(message);
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Move messages older than the configured age from chat_messages into a new segment,
+     * one batch per segment, until none are left
+     */
+    @Scheduled(cron = "${chat.archive.cron:0 0 4 * * *}")
+    public synchronized void archive() {
+        if (!enabled) {
+            return;
+        }
+        
+        try {
+            Files.createDirectories(directory);
+            
+            // A segment may have been written without its rows being removed (crash in between)
+            long committed = jdbcTemplate.queryForObject(
+                "SELECT archived_up_to FROM chat_archive_state WHERE id = 1", Long.class);
+            if (archivedUpTo > committed) {
+                removeArchivedRows(committed, archivedUpTo);
+            }
+            
+            Timestamp cutoff = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays));
+            int archived = 0;
+            while (true) {
+                List<ChatMessage> batch = jdbcTemplate.query(
+                    "SELECT id, message_text, sender_id, receiver_id, conversation_key, timestamp " +
+                    "FROM chat_messages WHERE id > ? ORDER BY id LIMIT ?",
+                    (rs, rowNum) -> {
+                        ChatMessage message = new ChatMessage();
+                        message.setId(rs.getLong("id"));
+                        message.setMessageText(rs.getString("message_text"));
+                        message.setSenderId(rs.getLong("sender_id"));
+                        message.setReceiverId(rs.getLong("receiver_id"));
+                        message.setConversationKey(rs.getLong("conversation_key"));
+                        message.setTimestamp(rs.getTimestamp("timestamp"));
+                        return message;
+                    },
+                    archivedUpTo, batchSize);
+                
+                // Only the leading run of old messages; ids grow with time, so stop at the first recent one
+                int old = 0;
+                while (old < batch.size() && batch.get(old).getTimestamp().before(cutoff)) {
+                    old++;
+                }
+                if (old == 0) {
+                    break;
+                }
+                
+                List<ChatMessage> segment = batch.subList(0, old);
+                long from = archivedUpTo;
+                long to = segment.get(segment.size() - 1).getId();
+                writeSegment(segment, to);
+                removeArchivedRows(from, to);
+                archived += segment.size();
+                
+                if (old < batch.size()) {
+                    break;
+                }
+            }
+            
+            if (archived > 0) {
+                logger.info("Archived {} chat messages up to id {}", archived, archivedUpTo);
+            }
+        } catch (Exception e) {
+            logger.error("Chat archive run failed", e);
+        }
+    }
+    
+    /**
+     * Count archived rows into chat_archive_user_totals and delete them, in one transaction
+     */
+    private void removeArchivedRows(long fromExclusive, long toInclusive) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.update(
+                "INSERT INTO chat_archive_user_totals (user_id, messages_sent, messages_received) " +
+                "SELECT sender_id, COUNT(*), 0 FROM chat_messages WHERE id > ? AND id <= ? GROUP BY sender_id " +
+                "ON DUPLICATE KEY UPDATE messages_sent = messages_sent + VALUES(messages_sent)",
+                fromExclusive, toInclusive);
+            jdbcTemplate.update(
+                "INSERT INTO chat_archive_user_totals (user_id, messages_sent, messages_received) " +
+                "SELECT receiver_id, 0, COUNT(*) FROM chat_messages WHERE id > ? AND id <= ? GROUP BY receiver_id " +
+                "ON DUPLICATE KEY UPDATE messages_received = messages_received + VALUES(messages_received)",
+                fromExclusive, toInclusive);
+            jdbcTemplate.update("DELETE FROM chat_messages WHERE id > ? AND id <= ?", fromExclusive, toInclusive);
+            jdbcTemplate.update("UPDATE chat_archive_state SET archived_up_to = ? WHERE id = 1", toInclusive);
+        });
+    }
+    
+    private void writeSegment(List<ChatMessage> messages, long lastId) throws IOException {
+        // Group by conversation, keeping id order inside each group
+        Map<Long, List<ChatMessage>> byConversation = new LinkedHashMap<>();
+        for (ChatMessage message : messages) {
+            byConversation.computeIfAbsent(message.getConversationKey(), key -> new ArrayList<>()).add(message);
+        }
+        
+        String name = String.format("segment-%020d", lastId);
+        Path dataFile = directory.resolve(name + ".seg");
+        Path indexFile = directory.resolve(name + ".idx");
+        Path dataTmp = directory.resolve(name + ".seg.tmp");
+        Path indexTmp = directory.resolve(name + ".idx.tmp");
+        
+        List<Block> blocks = new ArrayList<>();
+        try (FileChannel data = FileChannel.open(dataTmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long offset = 0;
+            for (Map.Entry<Long, List<ChatMessage>> entry : byConversation.entrySet()) {
+                byte[] compressed = compress(entry.getValue());
+                CRC32 crc = new CRC32();
+                crc.update(compressed);
+                
+                ByteBuffer buffer = ByteBuffer.wrap(compressed);
+                while (buffer.hasRemaining()) {
+                    data.write(buffer);
+                }
+                
+                List<ChatMessage> group = entry.getValue();
+                blocks.add(new Block(dataFile, entry.getKey(), offset, compressed.length, group.size(),
+                    group.get(0).getId(), group.get(group.size() - 1).getId(), crc.getValue()));
+                offset += compressed.length;
+            }
+            data.force(true);
+        }
+        
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(indexBytes)) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(lastId);
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                out.writeLong(block.conversationKey);
+                out.writeLong(block.offset);
+                out.writeInt(block.length);
+                out.writeInt(block.count);
+                out.writeLong(block.minId);
+                out.writeLong(block.maxId);
+                out.writeLong(block.crc);
+            }
+        }
+        try (FileChannel index = FileChannel.open(indexTmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(indexBytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                index.write(buffer);
+            }
+            index.force(true);
+        }
+        
+        // The .idx rename publishes the segment
+        Files.move(dataTmp, dataFile, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTmp, indexFile, StandardCopyOption.ATOMIC_MOVE);
+        publish(blocks, lastId);
+    }
+    
+    private void loadSegment(Path indexFile) throws IOException {
+        String name = indexFile.getFileName().toString();
+        Path dataFile = indexFile.resolveSibling(name.substring(0, name.length() - ".idx".length()) + ".seg");
+        
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(indexFile))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                throw new IOException("Not a chat archive index: " + indexFile);
+            }
+            long lastId = in.readLong();
+            int count = in.readInt();
+            List<Block> blocks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                blocks.add(new Block(dataFile, in.readLong(), in.readLong(), in.readInt(), in.readInt(),
+                    in.readLong(), in.readLong(), in.readLong()));
+            }
+            publish(blocks, lastId);
+        }
+    }
+    
+    private void publish(List<Block> blocks, long lastId) {
+        for (Block block : blocks) {
+            blocksByConversation.compute(block.conversationKey, (key, existing) -> {
+                List<Block> updated = existing == null ? new ArrayList<>() : new ArrayList<>(existing);
+                updated.add(block);
+                return Collections.unmodifiableList(updated);
+            });
+        }
+        archivedUpTo = Math.max(archivedUpTo, lastId);
+    }
+    
+    private static byte[] compress(List<ChatMessage> messages) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(
+                new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_COMPRESSION)))) {
+            out.writeInt(messages.size());
+            for (ChatMessage message : messages) {
+                out.writeLong(message.getId());
+                out.writeLong(message.getSenderId());
+                out.writeLong(message.getReceiverId());
+                out.writeLong(message.getTimestamp().getTime());
+                out.writeUTF(message.getMessageText());
+            }
+        }
+        return bytes.toByteArray();
+    }
+    
+    private List<ChatMessage> readBlock(Block block) {
+        try (FileChannel channel = FileChannel.open(block.file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(block.length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, block.offset + buffer.position()) < 0) {
+                    throw new IOException("Truncated chat archive segment " + block.file);
+                }
+            }
+            
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array());
+            if (crc.getValue() != block.crc) {
+                throw new IOException("Checksum mismatch in chat archive segment " + block.file);
+            }
+            
+            InputStream inflated = new InflaterInputStream(new ByteArrayInputStream(buffer.array()));
+            try (DataInputStream in = new DataInputStream(inflated)) {
+                int count = in.readInt();
+                List<ChatMessage> messages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ChatMessage message = new ChatMessage();
+                    message.setId(in.readLong());
+                    message.setSenderId(in.readLong());
+                    message.setReceiverId(in.readLong());
+                    message.setTimestamp(new Date(in.readLong()));
+                    message.setMessageText(in.readUTF());
+                    message.setConversationKey(block.conversationKey);
+                    messages.add(message);
+                }
+                return messages;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read chat archive block of conversation " + block.conversationKey, e);
+        }
+    }
+    
+    private static class Block {
+        private final Path file;
+        private final long conversationKey;
+        private final long offset;
+        private final int length;
+        private final int count;
+        private final long minId;
+        private final long maxId;
+        private final long crc;
+        
+        private Block(Path file, long conversationKey, long offset, int length, int count, long minId, long maxId, long crc) {
+            this.file = file;
+            this.conversationKey = conversationKey;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.minId = minId;
+            this.maxId = maxId;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package klu.com.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import klu.com.model.ChatMessage;
+
+/**
+ * The newest messages of recently used conversations, so most history reads never reach MySQL.
+ * Each conversation keeps a ring buffer of its latest chat.cache.messages-per-conversation
+ * messages, contiguous up to the newest one, plus both participants' read watermarks.
+ * Whole conversations are evicted least recently used first once the estimated size goes
+ * over chat.cache.max-bytes. Callers always get copies, never the cached objects.
+ *
+ * The cache only sees sends and reads made through this node.
+ */
+@Service
+public class ChatConversationCache {
+    
+    // Rough per-message footprint: ChatMessage, boxed Longs, Date, String header, ring slot
+    private static final int MESSAGE_OVERHEAD_BYTES = 160;
+    private static final int CONVERSATION_OVERHEAD_BYTES = 200;
+    
+    @Value("${chat.cache.messages-per-conversation:64}")
+    private int capacity;
+    
+    @Value("${chat.cache.max-bytes:67108864}")
+    private long maxBytes;
+    
+    // Access ordered, so iteration starts at the least recently used conversation; guarded by this
+    private final LinkedHashMap<Long, Ring> conversations = new LinkedHashMap<>(16, 0.75f, true);
+    
+    private long bytes;
+    
+    // Bumped by every watermark change, so watermarks read before a change are not cached after it
+    private long readStamp;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Newest messages older than beforeId (all newest when null), newest first, or null when
+     * the cache cannot answer completely. Read status is derived from the cached watermarks.
+     */
+    public synchronized List<ChatMessage> getBefore(long conversationKey, Long beforeId, int limit) {
+        Ring ring = conversations.get(conversationKey);
+        if (ring == null || ring.watermarks == null) {
+            return null;
+        }
+        
+        List<ChatMessage> result = new ArrayList<>(Math.min(limit, ring.size));
+        for (int i = ring.size - 1; i >= 0 && result.size() < limit; i--) {
+            ChatMessage message = ring.get(i);
+            if (beforeId == null || message.getId() < beforeId) {
+                result.add(ring.copy(message));
+            }
+        }
+        // A short page is only an answer if nothing older exists
+        return result.size() == limit || ring.complete ? result : null;
+    }
+    
+    /**
+     * Messages right after afterId, oldest first, or null when messages older than the
+     * cached ones could be part of the answer
+     */
+    public synchronized List<ChatMessage> getAfter(long conversationKey, long afterId, int limit) {
+        Ring ring = conversations.get(conversationKey);
+        if (ring == null || ring.watermarks == null
+                || (!ring.complete && (ring.size == 0 || afterId < ring.get(0).getId()))) {
+            return null;
+        }
+        
+        List<ChatMessage> result = new ArrayList<>();
+        for (int i = 0; i < ring.size && result.size() < limit; i++) {
+            ChatMessage message = ring.get(i);
+            if (message.getId() > afterId) {
+                result.add(ring.copy(message));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Whether the conversation holds a full ring (or all of its messages), so that a miss
+     * only needs the watermarks reloaded
+     */
+    public synchronized boolean hasMessages(long conversationKey) {
+        Ring ring = conversations.get(conversationKey);
+        return ring != null && (ring.complete || ring.size == capacity);
+    }
+    
+    /**
+     * Take before reading watermarks from the database; pass to load / setWatermarks
+     */
+    public synchronized long getReadStamp() {
+        return readStamp;
+    }
+    
+    /**
+     * Fill a conversation after a miss with its newest messages (newest first, at most
+     * getCapacity() of them) and the read watermarks; complete when these are all of its
+     * messages. Messages added while the database was being read are kept.
+     */
+    public synchronized void load(long conversationKey, List<ChatMessage> newestFirst, boolean complete,
+            Map<Long, Long> watermarks, long stamp) {
+        Ring ring = new Ring(capacity);
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            ring.append(newestFirst.get(i));
+        }
+        ring.complete = complete;
+        
+        Ring previous = conversations.get(conversationKey);
+        if (previous != null) {
+            long newest = newestFirst.isEmpty() ? 0 : newestFirst.get(0).getId();
+            for (int i = 0; i < previous.size; i++) {
+                if (previous.get(i).getId() > newest) {
+                    ring.append(previous.get(i));
+                }
+            }
+            remove(conversationKey);
+        }
+        
+        ring.watermarks = stamp == readStamp ? new HashMap<>(watermarks) : null;
+        conversations.put(conversationKey, ring);
+        bytes += ring.bytes + CONVERSATION_OVERHEAD_BYTES;
+        evict();
+    }
+    
+    public synchronized void setWatermarks(long conversationKey, Map<Long, Long> watermarks, long stamp) {
+        Ring ring = conversations.get(conversationKey);
+        if (ring != null && stamp == readStamp) {
+            ring.watermarks = new HashMap<>(watermarks);
+        }
+    }
+    
+    /**
+     * Append a just committed message. A conversation seen for the first time starts
+     * with this message and answers only what it can prove complete.
+     */
+    public synchronized void add(ChatMessage message) {
+        long key = message.getConversationKey();
+        Ring ring = conversations.get(key);
+        if (ring == null) {
+            ring = new Ring(capacity);
+            conversations.put(key, ring);
+            bytes += CONVERSATION_OVERHEAD_BYTES;
+        } else if (ring.size > 0 && message.getId() <= ring.get(ring.size - 1).getId()) {
+            // Out of order: drop the conversation rather than keep a gap
+            remove(key);
+            return;
+        }
+        
+        bytes -= ring.bytes;
+        ring.append(message);
+        bytes += ring.bytes;
+        evict();
+    }
+    
+    /**
+     * A participant's watermark moved; the watermarks are reloaded with the next miss
+     */
+    public synchronized void invalidateReadState(long conversationKey) {
+        readStamp++;
+        Ring ring = conversations.get(conversationKey);
+        if (ring != null) {
+            ring.watermarks = null;
+        }
+    }
+    
+    public synchronized void remove(long conversationKey) {
+        Ring ring = conversations.remove(conversationKey);
+        if (ring != null) {
+            bytes -= ring.bytes + CONVERSATION_OVERHEAD_BYTES;
+        }
+    }
+    
+    public void recordHit() {
+        hits.increment();
+    }
+    
+    public void recordMiss() {
+        misses.increment();
+    }
+    
+    public synchronized Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("conversations", conversations.size());
+        stats.put("estimatedBytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+    
+    private void evict() {
+        Iterator<Ring> eldest = conversations.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Ring ring = eldest.next();
+            bytes -= ring.bytes + CONVERSATION_OVERHEAD_BYTES;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+    
+    /**
+     * Fixed-size ring of the newest messages, oldest at index 0
+     */
+    private static class Ring {
+        private final ChatMessage[] messages;
+        private int start;
+        private int size;
+        private long bytes;
+        // Holds every message of the conversation (loaded whole and never overflowed since)
+        private boolean complete;
+        private Map<Long, Long> watermarks;
+        
+        private Ring(int capacity) {
+            this.messages = new ChatMessage[capacity];
+        }
+        
+        private ChatMessage get(int index) {
+            return messages[(start + index) % messages.length];
+        }
+        
+        private void append(ChatMessage message) {
+            ChatMessage stored = new ChatMessage(message.getId(), message.getMessageText(), message.getSenderId(),
+                message.getReceiverId(), message.getConversationKey(), 0, message.getTimestamp());
+            if (size == messages.length) {
+                bytes -= footprint(messages[start]);
+                messages[start] = stored;
+                start = (start + 1) % messages.length;
+                complete = false;
+            } else {
+                messages[(start + size) % messages.length] = stored;
+                size++;
+            }
+            bytes += footprint(stored);
+        }
+        
+        private ChatMessage copy(ChatMessage message) {
+            long watermark = watermarks.getOrDefault(message.getReceiverId(), 0L);
+            return new ChatMessage(message.getId(), message.getMessageText(), message.getSenderId(),
+                message.getReceiverId(), message.getConversationKey(), message.getId() <= watermark ? 1 : 0,
+                message.getTimestamp());
+        }
+        
+        private static long footprint(ChatMessage message) {
+            String text = message.getMessageText();
+            return MESSAGE_OVERHEAD_BYTES + (text != null ? 2L * text.length() : 0);
+        }
+    }
+}
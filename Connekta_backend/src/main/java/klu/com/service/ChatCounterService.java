@@ -0,0 +1,315 @@
+package klu.com.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Per-user chat counters (sent, received, unread, conversations).
+ * The write path only bumps in-memory LongAdders; a scheduled flush folds the deltas into
+ * chat_user_counters, and statistics are the persisted row plus the pending deltas.
+ * A nightly reconciliation recomputes the rows from chat_messages to repair drift
+ * (e.g. deltas lost in a crash).
+ * Only active users stay in memory: a user's deltas are dropped once a flush finds them idle,
+ * and cached rows are dropped after chat.counters.cache-idle-ms without a read (or all at once
+ * when chat.counters.cache-max-entries is reached).
+ */
+@Service
+public class ChatCounterService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ChatCounterService.class);
+    
+    private static final int SENT = 0;
+    private static final int RECEIVED = 1;
+    private static final int UNREAD = 2;
+    private static final int CONVERSATIONS = 3;
+    
+    private static final int RECONCILE_CHUNK_SIZE = 500;
+    
+    // How often flush looks for cached rows that were not read for cache-idle-ms
+    private static final long SWEEP_INTERVAL_MS = 60000;
+    
+    @Value("${chat.counters.cache-max-entries:100000}")
+    private int maxCachedUsers;
+    
+    @Value("${chat.counters.cache-idle-ms:600000}")
+    private long cacheIdleMs;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    // Deltas not yet written to chat_user_counters, for users active since the last flush
+    private final Map<Long, UserCounters> pending = new ConcurrentHashMap<>();
+    
+    // Entries the last flush dropped as idle; a sender that picked one up just before it was
+    // dropped has had a whole flush interval to add to it, so the next flush drains them once more
+    private List<UserCounters> retired = new ArrayList<>();
+    
+    // Persisted rows already read, kept in step with every flush
+    private final Map<Long, PersistedCounters> persisted = new ConcurrentHashMap<>();
+    
+    private long lastSweep;
+    
+    /**
+     * Account for one stored message
+     */
+    public void recordMessage(Long senderId, Long receiverId) {
+        pendingFor(senderId).adders[SENT].increment();
+        UserCounters receiver = pendingFor(receiverId);
+        receiver.adders[RECEIVED].increment();
+        receiver.adders[UNREAD].increment();
+    }
+    
+    /**
+     * Account for a new (user, counterpart) conversation
+     */
+    public void recordConversationOpened(Long userId) {
+        pendingFor(userId).adders[CONVERSATIONS].increment();
+    }
+    
+    /**
+     * Account for messages the user has just read
+     */
+    public void recordRead(Long readerId, long readCount) {
+        if (readCount > 0) {
+            pendingFor(readerId).adders[UNREAD].add(-readCount);
+        }
+    }
+    
+    /**
+     * Current counters of a user: one primary key read at most, then memory only
+     */
+    public Map<String, Object> getCounters(Long userId) {
+        long now = System.currentTimeMillis();
+        PersistedCounters base = persisted.get(userId);
+        if (base == null) {
+            base = loadAndCache(userId, now);
+        }
+        base.lastRead = now;
+        UserCounters delta = pending.get(userId);
+        
+        long[] values = new long[4];
+        synchronized (base) {
+            System.arraycopy(base.values, 0, values, 0, values.length);
+        }
+        if (delta != null) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] += delta.adders[i].sum();
+            }
+        }
+        
+        return Map.of(
+            "messagesSent", values[SENT],
+            "messagesReceived", values[RECEIVED],
+            "unreadMessages", Math.max(0, values[UNREAD]),
+            "conversationsCount", values[CONVERSATIONS]
+        );
+    }
+    
+    /**
+     * Write pending deltas to chat_user_counters
+     */
+    @Scheduled(fixedDelayString = "${chat.counters.flush-ms:1000}")
+    public synchronized void flush() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep >= SWEEP_INTERVAL_MS) {
+            lastSweep = now;
+            persisted.values().removeIf(counters -> now - counters.lastRead >= cacheIdleMs);
+        }
+        
+        List<Object[]> rows = new ArrayList<>();
+        List<Long> userIds = new ArrayList<>();
+        
+        List<UserCounters> dropped = retired;
+        retired = new ArrayList<>();
+        for (UserCounters counters : dropped) {
+            drain(counters, rows, userIds);
+        }
+        
+        for (Map.Entry<Long, UserCounters> entry : pending.entrySet()) {
+            if (!drain(entry.getValue(), rows, userIds) && pending.remove(entry.getKey(), entry.getValue())) {
+                // Idle since the last flush: the next increment creates a fresh entry
+                retired.add(entry.getValue());
+            }
+        }
+        
+        if (rows.isEmpty()) {
+            return;
+        }
+        
+        try {
+            jdbcTemplate.batchUpdate(
+                "INSERT INTO chat_user_counters " +
+                "(user_id, messages_sent, messages_received, unread_messages, conversations_count) " +
+                "VALUES (?, ?, ?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE " +
+                "messages_sent = messages_sent + VALUES(messages_sent), " +
+                "messages_received = messages_received + VALUES(messages_received), " +
+                "unread_messages = GREATEST(0, unread_messages + VALUES(unread_messages)), " +
+                "conversations_count = conversations_count + VALUES(conversations_count)",
+                rows);
+        } catch (Exception e) {
+            // Put the deltas back so the next flush retries them
+            logger.error("Failed to flush chat counters for {} users", rows.size(), e);
+            for (int r = 0; r < rows.size(); r++) {
+                Object[] row = rows.get(r);
+                long[] delta = { (Long) row[1], (Long) row[2], (Long) row[3], (Long) row[4] };
+                applyToPersisted(userIds.get(r), delta, -1);
+                UserCounters counters = pendingFor(userIds.get(r));
+                for (int i = 0; i < delta.length; i++) {
+                    counters.adders[i].add(delta[i]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Recompute every user's counters from chat_messages and chat_conversations
+     * (plus the per-user totals of archived messages).
+     * Deltas recorded while a chunk is being recomputed can be counted twice; the
+     * error is bounded by one flush interval of traffic and corrected by the next run.
+     */
+    @Scheduled(cron = "${chat.counters.reconcile-cron:0 30 3 * * *}")
+    public void reconcile() {
+        flush();
+        
+        long lastUserId = 0;
+        int reconciled = 0;
+        while (true) {
+            List<Long> userIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT user_id FROM chat_conversations WHERE user_id > ? ORDER BY user_id LIMIT ?",
+                Long.class, lastUserId, RECONCILE_CHUNK_SIZE);
+            if (userIds.isEmpty()) {
+                break;
+            }
+            
+            synchronized (this) {
+                jdbcTemplate.update(
+                    "INSERT INTO chat_user_counters " +
+                    "(user_id, messages_sent, messages_received, unread_messages, conversations_count) " +
+                    "SELECT c.user_id, " +
+                    "    (SELECT COUNT(*) FROM chat_messages m WHERE m.sender_id = c.user_id) " +
+                    "        + COALESCE((SELECT a.messages_sent FROM chat_archive_user_totals a WHERE a.user_id = c.user_id), 0), " +
+                    "    (SELECT COUNT(*) FROM chat_messages m WHERE m.receiver_id = c.user_id) " +
+                    "        + COALESCE((SELECT a.messages_received FROM chat_archive_user_totals a WHERE a.user_id = c.user_id), 0), " +
+                    "    (SELECT COUNT(*) FROM chat_conversations w JOIN chat_messages m " +
+                    "        ON m.conversation_key = (LEAST(w.user_id, w.other_user_id) << 32) | GREATEST(w.user_id, w.other_user_id) " +
+                    "        AND m.sender_id = w.other_user_id AND m.id > w.last_read_message_id " +
+                    "     WHERE w.user_id = c.user_id), " +
+                    "    COUNT(*) " +
+                    "FROM chat_conversations c WHERE c.user_id BETWEEN ? AND ? GROUP BY c.user_id " +
+                    "ON DUPLICATE KEY UPDATE " +
+                    "messages_sent = VALUES(messages_sent), " +
+                    "messages_received = VALUES(messages_received), " +
+                    "unread_messages = VALUES(unread_messages), " +
+                    "conversations_count = VALUES(conversations_count)",
+                    userIds.get(0), userIds.get(userIds.size() - 1));
+                for (Long userId : userIds) {
+                    persisted.remove(userId);
+                }
+            }
+            
+            reconciled += userIds.size();
+            lastUserId = userIds.get(userIds.size() - 1);
+        }
+        logger.info("Reconciled chat counters for {} users", reconciled);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+    
+    private UserCounters pendingFor(Long userId) {
+        return pending.computeIfAbsent(userId, UserCounters::new);
+    }
+    
+    // Moves the counters' deltas into a flush row; false if there were none
+    private boolean drain(UserCounters counters, List<Object[]> rows, List<Long> userIds) {
+        long[] delta = new long[4];
+        boolean changed = false;
+        for (int i = 0; i < delta.length; i++) {
+            delta[i] = counters.adders[i].sumThenReset();
+            changed |= delta[i] != 0;
+        }
+        if (changed) {
+            applyToPersisted(counters.userId, delta, 1);
+            userIds.add(counters.userId);
+            rows.add(new Object[] { counters.userId, delta[SENT], delta[RECEIVED], delta[UNREAD], delta[CONVERSATIONS] });
+        }
+        return changed;
+    }
+    
+    // Holds the flush monitor: a flush drains deltas before it commits them and only folds them
+    // into rows already cached, so a row read mid-flush would miss that flush's deltas for good
+    private synchronized PersistedCounters loadAndCache(Long userId, long now) {
+        PersistedCounters base = persisted.get(userId);
+        if (base == null) {
+            if (persisted.size() >= maxCachedUsers) {
+                evictIdle(now);
+            }
+            base = loadPersisted(userId);
+            persisted.put(userId, base);
+        }
+        return base;
+    }
+    
+    private void evictIdle(long now) {
+        persisted.values().removeIf(counters -> now - counters.lastRead >= cacheIdleMs);
+        if (persisted.size() >= maxCachedUsers) {
+            // Still full of recently read rows: start over rather than scan for the oldest
+            persisted.clear();
+        }
+    }
+    
+    private void applyToPersisted(Long userId, long[] delta, int sign) {
+        PersistedCounters base = persisted.get(userId);
+        if (base == null) {
+            return;
+        }
+        synchronized (base) {
+            for (int i = 0; i < delta.length; i++) {
+                base.values[i] += sign * delta[i];
+            }
+        }
+    }
+    
+    private PersistedCounters loadPersisted(Long userId) {
+        List<long[]> rows = jdbcTemplate.query(
+            "SELECT messages_sent, messages_received, unread_messages, conversations_count " +
+            "FROM chat_user_counters WHERE user_id = ?",
+            (rs, rowNum) -> new long[] { rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4) },
+            userId);
+        return new PersistedCounters(rows.isEmpty() ? new long[4] : rows.get(0));
+    }
+    
+    private static class UserCounters {
+        private final Long userId;
+        private final LongAdder[] adders = { new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder() };
+        
+        private UserCounters(Long userId) {
+            this.userId = userId;
+        }
+    }
+    
+    private static class PersistedCounters {
+        private final long[] values;
+        private volatile long lastRead;
+        
+        private PersistedCounters(long[] values) {
+            this.values = values;
+        }
+    }
+}
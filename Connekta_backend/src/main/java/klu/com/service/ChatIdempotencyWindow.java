@@ -0,0 +1,45 @@
+package klu.com.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * The most recent client message keys per sender and the id each one was saved under
+ * (a pending future while the first attempt is still being written). Retries that land
+ * in the window are answered from memory; older ones fall through to the unique index
+ * on (sender_id, client_message_key).
+ */
+@Service
+public class ChatIdempotencyWindow {
+    
+    @Value("${chat.idempotency.window-size:100000}")
+    private int windowSize;
+    
+    // Insertion ordered, oldest key evicted first; guarded by this
+    private final LinkedHashMap<String, CompletableFuture<Long>> keys = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Long>> eldest) {
+            return size() > windowSize;
+        }
+    };
+    
+    /**
+     * Claim a key for a new send. Returns null if the caller is first (and must complete
+     * its claim with the saved id, or release it on failure), otherwise the earlier
+     * attempt's id future.
+     */
+    public synchronized CompletableFuture<Long> claim(Long senderId, String clientMessageKey, CompletableFuture<Long> claim) {
+        return keys.putIfAbsent(senderId + ":" + clientMessageKey, claim);
+    }
+    
+    /**
+     * The claimed send failed: forget the key so a retry can try again
+     */
+    public synchronized void release(Long senderId, String clientMessageKey, CompletableFuture<Long> claim) {
+        keys.remove(senderId + ":" + clientMessageKey, claim);
+    }
+}
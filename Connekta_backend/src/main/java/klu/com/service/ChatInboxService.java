@@ -0,0 +1,211 @@
+package klu.com.service;
+
+import klu.com.model.ChatMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains chat_conversations, the per-user inbox summary (latest message, read
+ * watermark and unread count per counterpart), so inbox reads and read tracking
+ * never have to scan or update chat_messages.
+ */
+@Service
+public class ChatInboxService {
+    
+    // Assignments run left to right, so the last_message_* columns are compared
+    // against the old last_message_id before it is overwritten.
+    private static final String UPSERT_SUFFIX =
+        "ON DUPLICATE KEY UPDATE " +
+        "last_message_text = IF(VALUES(last_message_id) > last_message_id, VALUES(last_message_text), last_message_text), " +
+        "last_message_sender_id = IF(VALUES(last_message_id) > last_message_id, VALUES(last_message_sender_id), last_message_sender_id), " +
+        "last_message_at = IF(VALUES(last_message_id) > last_message_id, VALUES(last_message_at), last_message_at), " +
+        "unread_count = unread_count + VALUES(unread_count), " +
+        "last_message_id = GREATEST(last_message_id, VALUES(last_message_id))";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ChatCounterService chatCounterService;
+    
+    /**
+     * Fold newly inserted messages into both participants' inbox rows.
+     * Must run in the transaction that inserted the messages.
+     * Returns the owner of every inbox row created, i.e. each user with a new conversation.
+     */
+    public List<Long> recordMessages(List<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return List.of();
+        }
+        String ids = String.join(",", Collections.nCopies(messageIds.size(), "?"));
+        Object[] params = messageIds.toArray();
+        
+        List<Long> opened = jdbcTemplate.queryForList(
+            "SELECT n.user_id FROM (" +
+            "    SELECT m.sender_id AS user_id, m.receiver_id AS other_user_id FROM chat_messages m WHERE m.id IN (" + ids + ") " +
+            "    UNION " +
+            "    SELECT m.receiver_id, m.sender_id FROM chat_messages m WHERE m.id IN (" + ids + ")" +
+            ") n LEFT JOIN chat_conversations c ON c.user_id = n.user_id AND c.other_user_id = n.other_user_id " +
+            "WHERE c.user_id IS NULL",
+            Long.class, concat(params, params));
+        
+        // Sender side: latest message only
+        jdbcTemplate.update(
+            "INSERT INTO chat_conversations " +
+            "(user_id, other_user_id, last_message_id, last_message_text, last_message_sender_id, last_message_at, unread_count) " +
+            "SELECT m.sender_id, m.receiver_id, m.id, m.message_text, m.sender_id, m.timestamp, 0 " +
+            "FROM chat_messages m JOIN (" +
+            "    SELECT MAX(id) AS last_id FROM chat_messages WHERE id IN (" + ids + ") GROUP BY sender_id, receiver_id" +
+            ") l ON m.id = l.last_id " +
+            UPSERT_SUFFIX,
+            params);
+        
+        // Receiver side: latest message plus one unread per message
+        jdbcTemplate.update(
+            "INSERT INTO chat_conversations " +
+            "(user_id, other_user_id, last_message_id, last_message_text, last_message_sender_id, last_message_at, unread_count) " +
+            "SELECT m.receiver_id, m.sender_id, m.id, m.message_text, m.sender_id, m.timestamp, l.message_count " +
+            "FROM chat_messages m JOIN (" +
+            "    SELECT MAX(id) AS last_id, COUNT(*) AS message_count FROM chat_messages WHERE id IN (" + ids + ") GROUP BY sender_id, receiver_id" +
+            ") l ON m.id = l.last_id " +
+            UPSERT_SUFFIX,
+            params);
+        
+        return opened;
+    }
+    
+    /**
+     * Move the reader's watermark for one counterpart up to the latest message and
+     * return how many messages that marked as read. Touches a single row.
+     */
+    @Transactional
+    public int markConversationRead(Long readerId, Long otherUserId) {
+        List<Integer> unread = jdbcTemplate.queryForList(
+            "SELECT unread_count FROM chat_conversations WHERE user_id = ? AND other_user_id = ? FOR UPDATE",
+            Integer.class, readerId, otherUserId);
+        if (unread.isEmpty() || unread.get(0) == 0) {
+            return 0;
+        }
+        
+        jdbcTemplate.update(
+            "UPDATE chat_conversations SET last_read_message_id = last_message_id, unread_count = 0, last_read_at = ? " +
+            "WHERE user_id = ? AND other_user_id = ?",
+            new Timestamp(System.currentTimeMillis()), readerId, otherUserId);
+        chatCounterService.recordRead(readerId, unread.get(0));
+        return unread.get(0);
+    }
+    
+    /**
+     * Read watermarks that moved after the cursor, oldest change first: the user's own ones
+     * and the ones of everybody the user talks to. Rows are ordered by
+     * (last_read_at, reader_id, other_user_id) and the cursor is a position in that order, so
+     * a page boundary inside a run of equal timestamps still moves forward. With a null
+     * readSince every watermark of the user's conversations is returned; conversations that
+     * were never read have no watermark to report and are left out.
+     */
+    public List<Map<String, Object>> getReadChanges(Long userId, Long readSince, long readerId, long otherUserId, int limit) {
+        String columns = "SELECT user_id AS reader_id, other_user_id, last_read_message_id, last_read_at FROM chat_conversations ";
+        String order = "ORDER BY last_read_at, reader_id, other_user_id LIMIT ?";
+        if (readSince == null) {
+            return jdbcTemplate.queryForList(
+                "(" + columns + "WHERE user_id = ? AND last_read_at IS NOT NULL) " +
+                "UNION ALL (" + columns + "WHERE other_user_id = ? AND user_id <> ? AND last_read_at IS NOT NULL) " +
+                order,
+                userId, userId, userId, limit);
+        }
+        
+        // Strictly after (readSince, readerId, otherUserId); ids are positive, so a cursor
+        // of (readSince, 0, 0) takes in everything stamped at readSince
+        String after = "(last_read_at > ? OR (last_read_at = ? AND (user_id > ? OR (user_id = ? AND other_user_id > ?)))) ";
+        Timestamp since = new Timestamp(readSince);
+        return jdbcTemplate.queryForList(
+            "(" + columns + "WHERE user_id = ? AND " + after + ") " +
+            "UNION ALL (" + columns + "WHERE other_user_id = ? AND user_id <> ? AND " + after + ") " +
+            order,
+            userId, since, since, readerId, readerId, otherUserId,
+            userId, userId, since, since, readerId, readerId, otherUserId,
+            limit);
+    }
+    
+    /**
+     * Read watermarks of both participants of a conversation, keyed by reader id
+     * (0 when the reader has no inbox row yet)
+     */
+    public Map<Long, Long> getReadWatermarks(Long userId1, Long userId2) {
+        Map<Long, Long> watermarks = new HashMap<>();
+        watermarks.put(userId1, 0L);
+        watermarks.put(userId2, 0L);
+        jdbcTemplate.query(
+            "SELECT user_id, last_read_message_id FROM chat_conversations " +
+            "WHERE (user_id = ? AND other_user_id = ?) OR (user_id = ? AND other_user_id = ?)",
+            rs -> {
+                watermarks.put(rs.getLong("user_id"), rs.getLong("last_read_message_id"));
+            },
+            userId1, userId2, userId2, userId1);
+        return watermarks;
+    }
+    
+    /**
+     * Derive readStatus of messages between two users from the receivers' watermarks
+     */
+    public void applyReadStatus(List<ChatMessage> messages, Long userId1, Long userId2) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> watermarks = getReadWatermarks(userId1, userId2);
+        for (ChatMessage message : messages) {
+            long watermark = watermarks.getOrDefault(message.getReceiverId(), 0L);
+            message.setReadStatus(message.getId() <= watermark ? 1 : 0);
+        }
+    }
+    
+    /**
+     * Inbox of a user, most recent conversation first.
+     * Rows keep the columns of the old last-message query (id, message_text, sender_id,
+     * receiver_id, read_status, timestamp, other_user_id, other_user_name) plus unread_count.
+     */
+    public List<Map<String, Object>> getInbox(Long userId) {
+        String query =
+            "SELECT c.last_message_id AS id, c.last_message_text AS message_text, " +
+            "    c.last_message_sender_id AS sender_id, " +
+            "    IF(c.last_message_sender_id = c.user_id, c.other_user_id, c.user_id) AS receiver_id, " +
+            "    IF(c.last_message_id <= IF(c.last_message_sender_id = c.user_id, COALESCE(o.last_read_message_id, 0), c.last_read_message_id), 1, 0) AS read_status, " +
+            "    c.last_message_at AS timestamp, c.other_user_id, c.unread_count, " +
+            "    u.fullname AS other_user_name " +
+            "FROM chat_conversations c " +
+            "JOIN users u ON c.other_user_id = u.id " +
+            "LEFT JOIN chat_conversations o ON o.user_id = c.other_user_id AND o.other_user_id = c.user_id " +
+            "WHERE c.user_id = ? " +
+            "ORDER BY c.last_message_id DESC";
+        
+        return jdbcTemplate.queryForList(query, userId);
+    }
+    
+    /**
+     * Unread counts per counterpart, served from the inbox rows
+     */
+    public List<Map<String, Object>> getUnreadCounts(Long userId) {
+        String query =
+            "SELECT c.other_user_id AS sender_id, u.fullname, c.unread_count " +
+            "FROM chat_conversations c " +
+            "JOIN users u ON c.other_user_id = u.id " +
+            "WHERE c.user_id = ? AND c.unread_count > 0";
+        
+        return jdbcTemplate.queryForList(query, userId);
+    }
+    
+    private static Object[] concat(Object[] first, Object[] second) {
+        Object[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,498 @@
+package klu.com.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import klu.com.model.ChatMessage;
+import klu.com.util.MessageIdGenerator;
+
+/**
+ * Optional local write-ahead journal for chat sends (chat.journal.enabled).
+ * A send is appended to a memory-mapped segment file as [length][crc32][payload] and
+ * acknowledged once the next group fsync covers it, so the caller never waits for MySQL.
+ * A background applier writes journaled messages to chat_messages through the batch
+ * writer, oldest first, and records how far it got in journal.checkpoint. On startup
+ * everything after the checkpoint is replayed; records that are already in the table are
+ * skipped, and a torn record (bad length or checksum) marks the end of the journal.
+ * A message the database rejects outright is logged and dropped, so it cannot hold up the
+ * messages behind it.
+ * Until a message is applied, reads pick it up from getPending.
+ */
+@Service
+public class ChatJournal {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ChatJournal.class);
+    
+    private static final String CHECKPOINT_FILE = "journal.checkpoint";
+    
+    private static final int HEADER_BYTES = 8;
+    
+    @Value("${chat.journal.enabled:false}")
+    private boolean enabled;
+    
+    @Value("${chat.journal.dir:chat-journal}")
+    private String journalDir;
+    
+    @Value("${chat.journal.segment-bytes:67108864}")
+    private int segmentBytes;
+    
+    @Value("${chat.journal.fsync-ms:2}")
+    private long fsyncMs;
+    
+    @Value("${chat.journal.apply-batch-size:500}")
+    private int applyBatchSize;
+    
+    @Autowired
+    private MessageIdGenerator messageIdGenerator;
+    
+    @Autowired
+    private ChatMessageBatchWriter chatMessageBatchWriter;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    // Journaled but not yet applied, by id
+    private final ConcurrentSkipListMap<Long, Entry> pending = new ConcurrentSkipListMap<>();
+    
+    // The same messages by conversation key, then id; a conversation is dropped once all its messages are applied
+    private final ConcurrentHashMap<Long, ConcurrentSkipListMap<Long, ChatMessage>> pendingByConversation = new ConcurrentHashMap<>();
+    
+    private Path directory;
+    
+    // Current segment; guarded by this
+    private long segment;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long appended;
+    
+    // Appends covered by the last fsync; guarded by this
+    private long forced;
+    
+    private volatile boolean running;
+    
+    private Thread flusherThread;
+    private Thread applierThread;
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        directory = Files.createDirectories(Paths.get(journalDir));
+        
+        long[] checkpoint = readCheckpoint();
+        List<Long> segments = listSegments();
+        for (long number : segments) {
+            if (number >= checkpoint[0]) {
+                replay(number, number == checkpoint[0] ? (int) checkpoint[1] : 0);
+            }
+        }
+        
+        // Appends continue in the last segment, right after its last valid record
+        if (segments.isEmpty()) {
+            openSegment(Math.max(1, checkpoint[0]), 0);
+        } else {
+            long last = segments.get(segments.size() - 1);
+            openSegment(last, endOfRecords(last));
+        }
+        logger.info("Chat journal open at segment {}, {} messages to apply", segment, pending.size());
+        
+        running = true;
+        flusherThread = new Thread(this::runFlusher, "chat-journal-fsync");
+        flusherThread.setDaemon(true);
+        flusherThread.start();
+        applierThread = new Thread(this::runApplier, "chat-journal-applier");
+        applierThread.setDaemon(true);
+        applierThread.start();
+    }
+    
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        flusherThread.interrupt();
+        applierThread.interrupt();
+        flusherThread.join(1000);
+        applierThread.join(1000);
+        synchronized (this) {
+            buffer.force();
+            forced = appended;
+            notifyAll();
+        }
+    }
+    
+    /**
+     * Journal a message and return its id once it is on disk. If the fsync does not cover it
+     * within 10 s the id is returned anyway: the record is already in the segment and will
+     * be applied, so failing the call would only invite a retry that stores it twice.
+     */
+    public Long append(String messageText, Long senderId, Long receiverId, Date timestamp, String clientMessageKey) throws Exception {
+        if (!running) {
+            throw new IllegalStateException("Chat journal is not running");
+        }
+        
+        long sequence;
+        synchronized (this) {
+            long id = messageIdGenerator.nextId();
+            ChatMessage message = new ChatMessage(id, messageText, senderId, receiverId,
+                ChatMessage.conversationKey(senderId, receiverId), 0, timestamp, clientMessageKey);
+            byte[] payload = encode(message);
+            if (payload.length + HEADER_BYTES * 2 > segmentBytes) {
+                throw new IllegalArgumentException("Message too large for the chat journal");
+            }
+            
+            // Keep room for an empty header after the record, so the end is always readable
+            if (buffer.position() + HEADER_BYTES + payload.length + HEADER_BYTES > segmentBytes) {
+                buffer.force();
+                forced = appended;
+                channel.close();
+                openSegment(segment + 1, 0);
+            }
+            
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            buffer.putInt(payload.length);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(payload);
+            
+            addPending(new Entry(message, segment, buffer.position()));
+            sequence = ++appended;
+            notifyAll();
+            
+            // Group fsync: wait for the flusher to cover this append
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (forced < sequence) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    logger.warn("Chat journal fsync did not cover message {} within 10 s, acknowledging it unforced", id);
+                    break;
+                }
+                wait(remaining);
+            }
+            return id;
+        }
+    }
+    
+    /**
+     * Journaled messages of a conversation that are not in the table yet, oldest first
+     */
+    public List<ChatMessage> getPending(long conversationKey) {
+        ConcurrentSkipListMap<Long, ChatMessage> messages = pendingByConversation.get(conversationKey);
+        return messages == null ? new ArrayList<>() : new ArrayList<>(messages.values());
+    }
+    
+    /**
+     * Journaled messages sent or received by a user with id > afterId, oldest first
+     */
+    public List<ChatMessage> getPendingForUser(long userId, long afterId) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (Entry entry : pending.tailMap(afterId, false).values()) {
+            if (entry.message.getSenderId() == userId || entry.message.getReceiverId() == userId) {
+                messages.add(entry.message);
+            }
+        }
+        return messages;
+    }
+    
+    public int getPendingCount() {
+        return pending.size();
+    }
+    
+    private void runFlusher() {
+        while (running) {
+            try {
+                MappedByteBuffer toForce;
+                long sequence;
+                synchronized (this) {
+                    while (forced == appended && running) {
+                        wait();
+                    }
+                    toForce = buffer;
+                    sequence = appended;
+                }
+                // Let a few more appends join this fsync
+                Thread.sleep(fsyncMs);
+                toForce.force();
+                synchronized (this) {
+                    // Appends after the snapshot may have gone to a new segment, which the rollover forced
+                    forced = Math.max(forced, sequence);
+                    notifyAll();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logger.error("Chat journal fsync failed", e);
+            }
+        }
+    }
+    
+    private void runApplier() {
+        long backoffMs = 100;
+        while (running) {
+            try {
+                List<Entry> batch = new ArrayList<>(applyBatchSize);
+                for (Entry entry : pending.values()) {
+                    batch.add(entry);
+                    if (batch.size() == applyBatchSize) {
+                        break;
+                    }
+                }
+                if (batch.isEmpty()) {
+                    Thread.sleep(fsyncMs + 1);
+                    continue;
+                }
+                
+                apply(batch);
+                backoffMs = 100;
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // MySQL unavailable: the messages stay journaled and are retried
+                logger.warn("Applying chat journal failed, retrying in {} ms: {}", backoffMs, e.getMessage());
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoffMs = Math.min(backoffMs * 2, 10_000);
+            }
+        }
+    }
+    
+    private void apply(List<Entry> batch) throws Exception {
+        // After a crash or a failed attempt some of the batch may already be in the table
+        String ids = String.join(",", Collections.nCopies(batch.size(), "?"));
+        Object[] params = batch.stream().map(entry -> entry.message.getId()).toArray();
+        Set<Long> existing = new HashSet<>(jdbcTemplate.queryForList(
+            "SELECT id FROM chat_messages WHERE id IN (" + ids + ")", Long.class, params));
+        
+        List<ChatMessage> messages = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            if (!existing.contains(entry.message.getId())) {
+                messages.add(entry.message);
+            }
+        }
+        if (!messages.isEmpty()) {
+            Map<Long, Exception> failed = chatMessageBatchWriter.insertAll(messages);
+            for (Map.Entry<Long, Exception> failure : failed.entrySet()) {
+                // Anything but a row the database rejects (MySQL down, a timeout) retries the batch
+                if (!(failure.getValue() instanceof DataIntegrityViolationException)) {
+                    throw failure.getValue();
+                }
+            }
+            for (Entry entry : batch) {
+                if (failed.containsKey(entry.message.getId())) {
+                    // Retrying would block every later send; log all of it so it can be restored by hand
+                    ChatMessage message = entry.message;
+                    logger.error("Dropping journaled chat message {} rejected by the database " +
+                        "(sender {}, receiver {}, timestamp {}, client key {}, text \"{}\")",
+                        message.getId(), message.getSenderId(), message.getReceiverId(), message.getTimestamp().getTime(),
+                        message.getClientMessageKey(), message.getMessageText(), failed.get(message.getId()));
+                }
+            }
+        }
+        
+        Entry last = batch.get(batch.size() - 1);
+        writeCheckpoint(last.segment, last.end);
+        for (Entry entry : batch) {
+            removePending(entry.message);
+        }
+        deleteSegmentsBefore(last.segment);
+    }
+    
+    private void addPending(Entry entry) {
+        ChatMessage message = entry.message;
+        pending.put(message.getId(), entry);
+        pendingByConversation.compute(message.getConversationKey(), (key, messages) -> {
+            ConcurrentSkipListMap<Long, ChatMessage> conversation = messages != null ? messages : new ConcurrentSkipListMap<>();
+            conversation.put(message.getId(), message);
+            return conversation;
+        });
+    }
+    
+    private void removePending(ChatMessage message) {
+        pendingByConversation.computeIfPresent(message.getConversationKey(), (key, messages) -> {
+            messages.remove(message.getId());
+            return messages.isEmpty() ? null : messages;
+        });
+        pending.remove(message.getId());
+    }
+    
+    private void replay(long number, int from) throws IOException {
+        try (FileChannel file = FileChannel.open(segmentPath(number), StandardOpenOption.READ)) {
+            ByteBuffer data = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            data.position(from);
+            ChatMessage message;
+            while ((message = readRecord(data)) != null) {
+                addPending(new Entry(message, number, data.position()));
+            }
+        }
+    }
+    
+    private int endOfRecords(long number) throws IOException {
+        try (FileChannel file = FileChannel.open(segmentPath(number), StandardOpenOption.READ)) {
+            ByteBuffer data = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            while (readRecord(data) != null) {
+                // Skip to the end of the valid records
+            }
+            return data.position();
+        }
+    }
+    
+    /**
+     * Next record, or null at the end of the written data or at a torn record
+     */
+    private static ChatMessage readRecord(ByteBuffer data) {
+        if (data.remaining() < HEADER_BYTES) {
+            return null;
+        }
+        int start = data.position();
+        int length = data.getInt();
+        int checksum = data.getInt();
+        if (length <= 0 || length > data.remaining()) {
+            data.position(start);
+            return null;
+        }
+        
+        byte[] payload = new byte[length];
+        data.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            data.position(start);
+            return null;
+        }
+        return decode(payload);
+    }
+    
+    private static byte[] encode(ChatMessage message) {
+        byte[] text = message.getMessageText().getBytes(StandardCharsets.UTF_8);
+        byte[] key = message.getClientMessageKey() != null
+            ? message.getClientMessageKey().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer payload = ByteBuffer.allocate(5 * Long.BYTES + 2 * Integer.BYTES + text.length + key.length);
+        payload.putLong(message.getId());
+        payload.putLong(message.getSenderId());
+        payload.putLong(message.getReceiverId());
+        payload.putLong(message.getConversationKey());
+        payload.putLong(message.getTimestamp().getTime());
+        payload.putInt(text.length);
+        payload.put(text);
+        // Length 0 means no client key
+        payload.putInt(key.length);
+        payload.put(key);
+        return payload.array();
+    }
+    
+    private static ChatMessage decode(byte[] bytes) {
+        ByteBuffer payload = ByteBuffer.wrap(bytes);
+        long id = payload.getLong();
+        long senderId = payload.getLong();
+        long receiverId = payload.getLong();
+        long conversationKey = payload.getLong();
+        Date timestamp = new Date(payload.getLong());
+        byte[] text = new byte[payload.getInt()];
+        payload.get(text);
+        byte[] key = new byte[payload.getInt()];
+        payload.get(key);
+        return new ChatMessage(id, new String(text, StandardCharsets.UTF_8), senderId, receiverId,
+            conversationKey, 0, timestamp, key.length > 0 ? new String(key, StandardCharsets.UTF_8) : null);
+    }
+    
+    private void openSegment(long number, int position) throws IOException {
+        channel = FileChannel.open(segmentPath(number),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        buffer.position(position);
+        segment = number;
+    }
+    
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("journal-%010d.log", number));
+    }
+    
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+    
+    private void deleteSegmentsBefore(long number) throws IOException {
+        for (long old : listSegments()) {
+            if (old < number) {
+                Files.deleteIfExists(segmentPath(old));
+            }
+        }
+    }
+    
+    /**
+     * Segment number and offset up to which everything is applied ({0, 0} when nothing is)
+     */
+    private long[] readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return new long[] { 0, 0 };
+        }
+        String[] parts = Files.readString(file).trim().split(":");
+        return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]) };
+    }
+    
+    private void writeCheckpoint(long number, int offset) throws IOException {
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(tmp, number + ":" + offset);
+        Files.move(tmp, directory.resolve(CHECKPOINT_FILE),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    private static class Entry {
+        private final ChatMessage message;
+        private final long segment;
+        private final int end;
+        
+        private Entry(ChatMessage message, long segment, int end) {
+            this.message = message;
+            this.segment = segment;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package klu.com.service;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import klu.com.model.ChatMessage;
+import klu.com.util.MessageIdGenerator;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Group commit for chat message inserts.
+ * Concurrent senders enqueue their message and wait; a single writer thread collects
+ * whatever arrived within the linger window (up to chat.batch.max-size messages) and
+ * inserts it as one JDBC batch in one transaction (together with the inbox update),
+ * then hands each caller its id. A caller that times out while its message is still queued
+ * gets an error and the message is never written; once the writer has taken it, the caller
+ * waits for that batch's outcome instead.
+ */
+@Service
+public class ChatMessageBatchWriter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ChatMessageBatchWriter.class);
+    
+    private static final String INSERT_QUERY =
+        "INSERT INTO chat_messages (id, message_text, read_status, receiver_id, sender_id, conversation_key, timestamp, client_message_key) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    
+    @Value("${chat.batch.max-size:100}")
+    private int maxBatchSize;
+    
+    @Value("${chat.batch.linger-ms:5}")
+    private long lingerMs;
+    
+    @Value("${chat.batch.timeout-ms:10000}")
+    private long timeoutMs;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Autowired
+    private ChatInboxService chatInboxService;
+    
+    @Autowired
+    private ChatCounterService chatCounterService;
+    
+    @Autowired
+    private ChatSearchService chatSearchService;
+    
+    @Autowired
+    private ChatConversationCache chatConversationCache;
+    
+    @Autowired
+    private MessageIdGenerator messageIdGenerator;
+    
+    private final BlockingQueue<PendingMessage> queue = new LinkedBlockingQueue<>();
+    
+    private TransactionTemplate transactionTemplate;
+    
+    private Thread writerThread;
+    
+    private volatile boolean running;
+    
+    @PostConstruct
+    public void start() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        running = true;
+        writerThread = new Thread(this::runWriter, "chat-batch-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+    
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writerThread.interrupt();
+        writerThread.join(timeoutMs);
+    }
+    
+    /**
+     * Insert a message as part of the next batch and return its id. A message whose client
+     * key the sender already used fails with DuplicateMessageException.
+     */
+    public Long insert(String messageText, int readStatus, Long receiverId, Long senderId, Date timestamp,
+            String clientMessageKey) throws Exception {
+        if (!running) {
+            throw new IllegalStateException("Chat batch writer is not running");
+        }
+        
+        PendingMessage message = new PendingMessage(null, messageText, readStatus, receiverId, senderId,
+            new Timestamp(timestamp.getTime()), clientMessageKey);
+        queue.add(message);
+        return await(message);
+    }
+    
+    /**
+     * Insert messages that already carry their ids (from the chat journal), in the given
+     * order, and wait until all of them are committed (or turned out to be duplicates).
+     * Returns the messages that failed, by id; a failing row does not stop the others.
+     */
+    public Map<Long, Exception> insertAll(List<ChatMessage> messages) {
+        if (!running) {
+            throw new IllegalStateException("Chat batch writer is not running");
+        }
+        
+        List<PendingMessage> pending = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            pending.add(new PendingMessage(message.getId(), message.getMessageText(), message.getReadStatus(),
+                message.getReceiverId(), message.getSenderId(), new Timestamp(message.getTimestamp().getTime()),
+                message.getClientMessageKey()));
+        }
+        queue.addAll(pending);
+        Map<Long, Exception> failed = new HashMap<>();
+        for (PendingMessage message : pending) {
+            try {
+                await(message);
+            } catch (DuplicateMessageException e) {
+                // Already saved under its original id
+            } catch (Exception e) {
+                failed.put(message.id, e);
+            }
+        }
+        return failed;
+    }
+    
+    private Long await(PendingMessage message) throws Exception {
+        try {
+            try {
+                return message.result.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (message.taken.compareAndSet(false, true)) {
+                    // Still queued: the writer will skip it, so failing the caller cannot lead to a second copy
+                    throw e;
+                }
+                // Already in a batch the writer is committing: its outcome is the answer
+                return message.result.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+    
+    private void runWriter() {
+        List<PendingMessage> batch = new ArrayList<>(maxBatchSize);
+        
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                take(first, batch);
+                
+                // Linger briefly so concurrent senders share the commit
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingMessage next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    take(next, batch);
+                }
+            } catch (InterruptedException e) {
+                // Shutdown requested: flush what was collected and drain the queue
+                List<PendingMessage> drained = new ArrayList<>();
+                queue.drainTo(drained, maxBatchSize - batch.size());
+                for (PendingMessage message : drained) {
+                    take(message, batch);
+                }
+            }
+            
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+    
+    // Messages whose caller already gave up waiting are dropped here, before they get an id
+    private static void take(PendingMessage message, List<PendingMessage> batch) {
+        if (message.taken.compareAndSet(false, true)) {
+            batch.add(message);
+        }
+    }
+    
+    private void flush(List<PendingMessage> batch) {
+        flush(batch, true);
+    }
+    
+    private void flush(List<PendingMessage> batch, boolean resolveDuplicates) {
+        List<Long> opened = new ArrayList<>();
+        List<Long> ids;
+        try {
+            ids = transactionTemplate.execute(status -> {
+                List<Long> inserted = insertBatch(batch);
+                opened.addAll(chatInboxService.recordMessages(inserted));
+                return inserted;
+            });
+        } catch (DuplicateKeyException e) {
+            // A client key was used before (a retry the idempotency window no longer knew about):
+            // answer those with the original ids and write the rest of the batch again
+            if (resolveDuplicates) {
+                List<PendingMessage> remaining;
+                try {
+                    remaining = resolveDuplicates(batch);
+                } catch (Exception lookupFailed) {
+                    retryInHalves(batch, false, lookupFailed);
+                    return;
+                }
+                if (!remaining.isEmpty()) {
+                    flush(remaining, false);
+                }
+            } else {
+                retryInHalves(batch, false, e);
+            }
+            return;
+        } catch (Exception e) {
+            retryInHalves(batch, resolveDuplicates, e);
+            return;
+        }
+        
+        // Committed: whatever goes wrong from here on, every caller gets its id
+        try {
+            for (PendingMessage message : batch) {
+                chatCounterService.recordMessage(message.senderId, message.receiverId);
+            }
+            for (Long userId : opened) {
+                chatCounterService.recordConversationOpened(userId);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                PendingMessage message = batch.get(i);
+                chatSearchService.indexMessage(ids.get(i), message.senderId, message.receiverId, message.messageText);
+                chatConversationCache.add(new ChatMessage(ids.get(i), message.messageText, message.senderId,
+                    message.receiverId, message.conversationKey, 0, message.timestamp));
+            }
+        } catch (Exception e) {
+            logger.error("Chat messages committed, but updating counters, search or cache failed", e);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result.complete(ids.get(i));
+        }
+    }
+    
+    /**
+     * A failed batch is written again in halves, down to single messages, so a row the
+     * database rejects fails only its own caller and not everyone batched with it
+     */
+    private void retryInHalves(List<PendingMessage> batch, boolean resolveDuplicates, Exception e) {
+        if (batch.size() == 1) {
+            fail(batch, e);
+            return;
+        }
+        logger.warn("Batch of {} chat messages failed, retrying in halves: {}", batch.size(), e.getMessage());
+        int middle = batch.size() / 2;
+        flush(new ArrayList<>(batch.subList(0, middle)), resolveDuplicates);
+        flush(new ArrayList<>(batch.subList(middle, batch.size())), resolveDuplicates);
+    }
+    
+    private void fail(List<PendingMessage> batch, Exception e) {
+        logger.error("Failed to insert {} chat message(s)", batch.size(), e);
+        for (PendingMessage message : batch) {
+            message.result.completeExceptionally(e);
+        }
+    }
+    
+    /**
+     * Complete the messages whose client key is already saved (or repeated earlier in the
+     * batch) as duplicates and return the ones still to be inserted
+     */
+    private List<PendingMessage> resolveDuplicates(List<PendingMessage> batch) {
+        List<PendingMessage> remaining = new ArrayList<>(batch.size());
+        Map<String, PendingMessage> firstByKey = new HashMap<>();
+        for (PendingMessage message : batch) {
+            if (message.clientMessageKey == null) {
+                remaining.add(message);
+                continue;
+            }
+            
+            List<Long> existing = jdbcTemplate.queryForList(
+                "SELECT id FROM chat_messages WHERE sender_id = ? AND client_message_key = ?",
+                Long.class, message.senderId, message.clientMessageKey);
+            if (!existing.isEmpty()) {
+                message.result.completeExceptionally(new DuplicateMessageException(existing.get(0)));
+                continue;
+            }
+            
+            PendingMessage first = firstByKey.putIfAbsent(message.senderId + ":" + message.clientMessageKey, message);
+            if (first == null) {
+                remaining.add(message);
+            } else {
+                first.result.whenComplete((id, error) -> message.result.completeExceptionally(
+                    id != null ? new DuplicateMessageException(id) : error));
+            }
+        }
+        return remaining;
+    }
+    
+    private List<Long> insertBatch(List<PendingMessage> batch) {
+        // Ids are assigned here, on the writer thread, so they ascend in commit order
+        // (journaled messages got theirs, in the same order, when they were appended)
+        List<Long> ids = new ArrayList<>(batch.size());
+        for (PendingMessage message : batch) {
+            ids.add(message.id != null ? message.id : messageIdGenerator.nextId());
+        }
+        
+        return jdbcTemplate.execute((ConnectionCallback<List<Long>>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_QUERY)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingMessage message = batch.get(i);
+                    ps.setLong(1, ids.get(i));
+                    ps.setString(2, message.messageText);
+                    ps.setInt(3, message.readStatus);
+                    ps.setLong(4, message.receiverId);
+                    ps.setLong(5, message.senderId);
+                    ps.setLong(6, message.conversationKey);
+                    ps.setTimestamp(7, message.timestamp);
+                    ps.setString(8, message.clientMessageKey);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                return ids;
+            }
+        });
+    }
+    
+    /**
+     * The sender already sent a message with the same client key; it was saved as originalId
+     */
+    public static class DuplicateMessageException extends Exception {
+        private final long originalId;
+        
+        public DuplicateMessageException(long originalId) {
+            super("Duplicate client message key, original message " + originalId);
+            this.originalId = originalId;
+        }
+        
+        public long getOriginalId() {
+            return originalId;
+        }
+    }
+    
+    private static class PendingMessage {
+        private final Long id;
+        private final String messageText;
+        private final int readStatus;
+        private final Long receiverId;
+        private final Long senderId;
+        private final long conversationKey;
+        private final Timestamp timestamp;
+        private final String clientMessageKey;
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+        // Set once by whoever gets it first: the writer putting it in a batch, or a caller that timed out
+        private final AtomicBoolean taken = new AtomicBoolean();
+        
+        private PendingMessage(Long id, String messageText, int readStatus, Long receiverId, Long senderId,
+                Timestamp timestamp, String clientMessageKey) {
+            this.id = id;
+            this.messageText = messageText;
+            this.readStatus = readStatus;
+            this.receiverId = receiverId;
+            this.senderId = senderId;
+            // Computed up front so an invalid pair fails its own caller, not the whole batch
+            this.conversationKey = ChatMessage.conversationKey(senderId, receiverId);
+            this.timestamp = timestamp;
+            this.clientMessageKey = clientMessageKey;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package klu.com.service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import klu.com.model.ChatMessage;
+
+/**
+ * Maps chat_messages / chat_messages_with_read_status rows straight onto ChatMessage,
+ * reading columns by position in the order of COLUMNS
+ */
+public class ChatMessageRowMapper implements RowMapper<ChatMessage> {
+    
+    public static final ChatMessageRowMapper INSTANCE = new ChatMessageRowMapper();
+    
+    /**
+     * Select list every query mapped by this class must use
+     */
+    public static final String COLUMNS = "id, message_text, sender_id, receiver_id, conversation_key, read_status, timestamp";
+    
+    @Override
+    public ChatMessage mapRow(ResultSet rs, int rowNum) throws SQLException {
+        long key = rs.getLong(5);
+        Long conversationKey = rs.wasNull() ? null : key;
+        return new ChatMessage(
+            rs.getLong(1),
+            rs.getString(2),
+            rs.getLong(3),
+            rs.getLong(4),
+            conversationKey,
+            rs.getInt(6),
+            rs.getTimestamp(7));
+    }
+}
@@ -1,90 +1,398 @@
 package klu.com.service;
 
+import klu.com.model.ChatMessage;
+import klu.com.service.ChatMessageBatchWriter.DuplicateMessageException;
+import klu.com.util.MessageIdGenerator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Service;
 
-import java.sql.PreparedStatement;
-import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * The chat engine behind both /api/chat/* (ChatController) and /api/* (ChatMessageController).
+ * There is one read path (typed rows from chat_messages_with_read_status, continued into
+ * the archive) and one write path (the group-commit batch writer); the controllers only
+ * parse requests and shape responses.
+ */
 @Service
 public class ChatMessageService {
     
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
+    @Autowired
+    private ChatPushService chatPushService;
+    
+    @Autowired
+    private ChatMessageBatchWriter chatMessageBatchWriter;
+    
+    @Autowired
+    private ChatInboxService chatInboxService;
+    
+    @Autowired
+    private ChatArchiveService chatArchiveService;
+    
+    @Autowired
+    private ChatConversationCache chatConversationCache;
+    
+    @Autowired
+    private ChatJournal chatJournal;
+    
+    @Autowired
+    private ChatIdempotencyWindow chatIdempotencyWindow;
+    
+    /**
+     * Default and maximum number of messages returned by one history page
+     */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+    
+    /**
+     * Maximum number of messages and of read-state changes returned by one sync call
+     */
+    public static final int SYNC_PAGE_SIZE = 500;
+    
+    /**
+     * Longest accepted client message key (the column is VARCHAR(64))
+     */
+    public static final int MAX_CLIENT_MESSAGE_KEY_LENGTH = 64;
+    
+    /**
+     * Longest accepted message text (the column is VARCHAR(255))
+     */
+    public static final int MAX_MESSAGE_LENGTH = 255;
+    
+    // How long a retry waits for the first attempt with the same key to finish
+    private static final long DUPLICATE_WAIT_MS = 15000;
+    
+    /**
+     * How far the sync cursors stay behind the clock once the client has caught up, so a
+     * message or read committed just after a sync query (but stamped before it) is still
+     * picked up by the next call. For messages this also covers ids from other nodes whose
+     * clocks run up to this far behind (chat.id.node-id); the client dedupes by id.
+     */
+    static final long CURSOR_SLACK_MS = 2000;
+    
     /**
-     * Get messages between two users, ordered by timestamp
+     * Clamp a client supplied page size to [1, MAX_PAGE_SIZE]
      */
-    public List<Map<String, Object>> getMessagesBetweenUsers(Long userId, Long friendId) {
-        String query = "SELECT * FROM chat_messages " +
-                       "WHERE (sender_id = ? AND receiver_id = ?) OR (sender_id = ? AND receiver_id = ?) " +
-                       "ORDER BY timestamp ASC";
+    public static int resolvePageSize(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+    
+    /**
+     * Get one page of messages between two users, newest first.
+     * With beforeId the page holds messages older than that id; with afterId it holds
+     * the messages directly following that id (afterId wins when both are given).
+     */
+    public List<ChatMessage> getMessages(Long userId, Long friendId, Long beforeId, Long afterId, Integer limit) {
+        int pageSize = resolvePageSize(limit);
+        long conversationKey = ChatMessage.conversationKey(userId, friendId);
+        List<ChatMessage> messages = readMessages(conversationKey, userId, friendId, beforeId, afterId, pageSize);
+        if (!chatJournal.isEnabled()) {
+            return messages;
+        }
+        
+        // Journaled sends not applied yet are the newest messages; merge them in by id
+        TreeMap<Long, ChatMessage> merged = new TreeMap<>();
+        for (ChatMessage message : messages) {
+            merged.put(message.getId(), message);
+        }
+        for (ChatMessage message : chatJournal.getPending(conversationKey)) {
+            if ((beforeId == null || message.getId() < beforeId) && (afterId == null || message.getId() > afterId)) {
+                merged.putIfAbsent(message.getId(), message);
+            }
+        }
+        List<ChatMessage> page = new ArrayList<>(afterId != null ? merged.values() : merged.descendingMap().values());
+        if (page.size() > pageSize) {
+            page = new ArrayList<>(page.subList(0, pageSize));
+        }
+        if (afterId != null) {
+            Collections.reverse(page);
+        }
+        return page;
+    }
+    
+    private List<ChatMessage> readMessages(long conversationKey, Long userId, Long friendId, Long beforeId, Long afterId, int pageSize) {
+        List<ChatMessage> cached = getCachedMessages(conversationKey, userId, friendId, beforeId, afterId, pageSize);
+        if (cached != null) {
+            return cached;
+        }
+        
+        // The view derives read_status from the receiver's read watermark
+        String conversation = "SELECT " + ChatMessageRowMapper.COLUMNS + " FROM chat_messages_with_read_status WHERE conversation_key = ? ";
+        
+        if (afterId != null) {
+            // Archived messages (if the cursor is that old) come before anything still in the table
+            List<ChatMessage> messages = archived(chatArchiveService.readAfter(conversationKey, afterId, pageSize), userId, friendId);
+            if (messages.size() < pageSize) {
+                messages.addAll(jdbcTemplate.query(
+                    conversation + "AND id > ? ORDER BY id ASC LIMIT ?",
+                    ChatMessageRowMapper.INSTANCE, conversationKey, afterId, pageSize - messages.size()));
+            }
+            Collections.reverse(messages);
+            return messages;
+        }
+        
+        List<ChatMessage> messages = new ArrayList<>(pageSize);
+        if (beforeId != null) {
+            messages.addAll(jdbcTemplate.query(
+                conversation + "AND id < ? ORDER BY id DESC LIMIT ?",
+                ChatMessageRowMapper.INSTANCE, conversationKey, beforeId, pageSize));
+        } else {
+            messages.addAll(jdbcTemplate.query(
+                conversation + "ORDER BY id DESC LIMIT ?",
+                ChatMessageRowMapper.INSTANCE, conversationKey, pageSize));
+        }
         
-        return jdbcTemplate.queryForList(query, userId, friendId, friendId, userId);
+        // Continue into the cold archive once the table runs out of older messages
+        if (messages.size() < pageSize) {
+            long oldestId = !messages.isEmpty() ? messages.get(messages.size() - 1).getId()
+                : beforeId != null ? beforeId : Long.MAX_VALUE;
+            messages.addAll(archived(chatArchiveService.readBefore(conversationKey, oldestId, pageSize - messages.size()), userId, friendId));
+        }
+        return messages;
     }
     
     /**
-     * Save a new message to the chat_messages table
+     * The page from the hot-conversation cache, or null when it has to come from the database.
+     * A miss on the newest page (or on a conversation whose messages are cached but whose
+     * watermarks moved) fills the cache first.
      */
-    public Map<String, Object> saveMessage(String messageText, int readStatus, Long receiverId, Long senderId, String timestamp) {
-        Map<String, Object> response = new HashMap<>();
+    private List<ChatMessage> getCachedMessages(long conversationKey, Long userId, Long friendId, Long beforeId, Long afterId, int pageSize) {
+        if (pageSize > chatConversationCache.getCapacity()) {
+            return null;
+        }
         
-        try {
-            KeyHolder keyHolder = new GeneratedKeyHolder();
-            
-            jdbcTemplate.update(connection -> {
-                PreparedStatement ps = connection.prepareStatement(
-                    "INSERT INTO chat_messages (message_text, read_status, receiver_id, sender_id, timestamp) " +
-                    "VALUES (?, ?, ?, ?, ?)",
-                    Statement.RETURN_GENERATED_KEYS
-                );
-                ps.setString(1, messageText);
-                ps.setInt(2, readStatus);
-                ps.setLong(3, receiverId);
-                ps.setLong(4, senderId);
-                ps.setString(5, timestamp);
-                return ps;
-            }, keyHolder);
-            
-            Long messageId = keyHolder.getKey().longValue();
-            
-            response.put("status", "success");
-            response.put("message", "Message sent successfully");
-            response.put("messageId", messageId);
-        } catch (Exception e) {
-            response.put("status", "error");
-            response.put("message", "Failed to send message: " + e.getMessage());
+        List<ChatMessage> page = cachedPage(conversationKey, beforeId, afterId, pageSize);
+        if (page == null) {
+            boolean hasMessages = chatConversationCache.hasMessages(conversationKey);
+            if (hasMessages || (beforeId == null && afterId == null)) {
+                long stamp = chatConversationCache.getReadStamp();
+                Map<Long, Long> watermarks = chatInboxService.getReadWatermarks(userId, friendId);
+                if (hasMessages) {
+                    chatConversationCache.setWatermarks(conversationKey, watermarks, stamp);
+                } else {
+                    List<ChatMessage> newest = jdbcTemplate.query(
+                        "SELECT " + ChatMessageRowMapper.COLUMNS + " FROM chat_messages WHERE conversation_key = ? ORDER BY id DESC LIMIT ?",
+                        ChatMessageRowMapper.INSTANCE, conversationKey, chatConversationCache.getCapacity());
+                    boolean complete = newest.size() < chatConversationCache.getCapacity()
+                        && !chatArchiveService.hasMessages(conversationKey);
+                    chatConversationCache.load(conversationKey, newest, complete, watermarks, stamp);
+                }
+                page = cachedPage(conversationKey, beforeId, afterId, pageSize);
+            }
         }
         
-        return response;
+        if (page == null) {
+            chatConversationCache.recordMiss();
+        } else {
+            chatConversationCache.recordHit();
+        }
+        return page;
+    }
+    
+    private List<ChatMessage> cachedPage(long conversationKey, Long beforeId, Long afterId, int pageSize) {
+        if (afterId == null) {
+            return chatConversationCache.getBefore(conversationKey, beforeId, pageSize);
+        }
+        List<ChatMessage> page = chatConversationCache.getAfter(conversationKey, afterId, pageSize);
+        if (page != null) {
+            Collections.reverse(page);
+        }
+        return page;
     }
     
     /**
-     * Mark all messages from sender to receiver as read
+     * Archived messages with read_status derived the same way the view does it
      */
-    public Map<String, Object> markMessagesAsRead(Long receiverId, Long senderId) {
-        Map<String, Object> response = new HashMap<>();
+    private List<ChatMessage> archived(List<ChatMessage> messages, Long userId, Long friendId) {
+        chatInboxService.applyReadStatus(messages, userId, friendId);
+        return new ArrayList<>(messages);
+    }
+    
+    /**
+     * Save a new message and push it to the live sessions of both participants.
+     * A null timestamp means "now". When the sender already sent a message with the same
+     * clientMessageKey, nothing is saved or pushed and the original id is returned.
+     * A message the chat_messages columns would reject fails with IllegalArgumentException
+     * before it is queued, so it cannot fail the other messages of its batch.
+     */
+    public ChatMessage sendMessage(Long senderId, Long receiverId, String messageText, Date timestamp,
+            String clientMessageKey) throws Exception {
+        validate(senderId, receiverId, messageText, clientMessageKey);
+        ChatMessage message = new ChatMessage(null, messageText, senderId, receiverId,
+            ChatMessage.conversationKey(senderId, receiverId), 0, timestamp != null ? timestamp : new Date(),
+            clientMessageKey);
+        if (clientMessageKey == null) {
+            message.setId(save(message));
+            chatPushService.publishMessage(senderId, receiverId, message);
+            return message;
+        }
+        // Retries within the in-memory window get the first attempt's id without a database round trip
+        CompletableFuture<Long> claim = new CompletableFuture<>();
+        CompletableFuture<Long> earlier = chatIdempotencyWindow.claim(senderId, clientMessageKey, claim);
+        if (earlier != null) {
+            try {
+                message.setId(earlier.get(DUPLICATE_WAIT_MS, TimeUnit.MILLISECONDS));
+                return message;
+            } catch (ExecutionException e) {
+                // The first attempt failed; this one is a fresh send
+                return sendMessage(senderId, receiverId, messageText, timestamp, clientMessageKey);
+            }
+        }
         
         try {
-            String updateQuery = "UPDATE chat_messages SET read_status = 1 " +
-                                "WHERE sender_id = ? AND receiver_id = ? AND read_status = 0";
-            
-            int updatedCount = jdbcTemplate.update(updateQuery, senderId, receiverId);
-            
-            response.put("status", "success");
-            response.put("message", "Messages marked as read");
-            response.put("updatedCount", updatedCount);
+            message.setId(save(message));
+        } catch (DuplicateMessageException e) {
+            // Sent before the window's memory: the unique index caught it
+            message.setId(e.getOriginalId());
+            claim.complete(e.getOriginalId());
+            return message;
         } catch (Exception e) {
-            response.put("status", "error");
-            response.put("message", "Failed to mark messages as read: " + e.getMessage());
+            chatIdempotencyWindow.release(senderId, clientMessageKey, claim);
+            claim.completeExceptionally(e);
+            throw e;
+        }
+        claim.complete(message.getId());
+        chatPushService.publishMessage(senderId, receiverId, message);
+        return message;
+    }
+    
+    private static void validate(Long senderId, Long receiverId, String messageText, String clientMessageKey) {
+        if (senderId == null || receiverId == null) {
+            throw new IllegalArgumentException("senderId and receiverId are required");
+        }
+        // Also rejects ids that do not fit a conversation key
+        ChatMessage.conversationKey(senderId, receiverId);
+        if (messageText == null) {
+            throw new IllegalArgumentException("messageText is required");
+        }
+        if (messageText.length() > MAX_MESSAGE_LENGTH) {
+            throw new IllegalArgumentException("messageText is longer than " + MAX_MESSAGE_LENGTH + " characters");
+        }
+        if (clientMessageKey != null && clientMessageKey.length() > MAX_CLIENT_MESSAGE_KEY_LENGTH) {
+            throw new IllegalArgumentException("clientMessageKey is longer than " + MAX_CLIENT_MESSAGE_KEY_LENGTH + " characters");
+        }
+    }
+    
+    private Long save(ChatMessage message) throws Exception {
+        if (chatJournal.isEnabled()) {
+            // Acknowledged once it is in the local journal; the applier writes it to MySQL
+            return chatJournal.append(message.getMessageText(), message.getSenderId(), message.getReceiverId(),
+                message.getTimestamp(), message.getClientMessageKey());
+        }
+        // Inserted through the group-commit writer, which shares one transaction between concurrent sends
+        return chatMessageBatchWriter.insert(message.getMessageText(), message.getReadStatus(), message.getReceiverId(),
+            message.getSenderId(), message.getTimestamp(), message.getClientMessageKey());
+    }
+    
+    /**
+     * Mark every message the other user sent to the reader as read; returns how many were unread
+     */
+    public int markConversationRead(Long readerId, Long otherUserId) {
+        int updatedCount = chatInboxService.markConversationRead(readerId, otherUserId);
+        if (updatedCount > 0) {
+            chatConversationCache.invalidateReadState(ChatMessage.conversationKey(readerId, otherUserId));
+        }
+        return updatedCount;
+    }
+    
+    /**
+     * Hit ratio and memory use of the hot-conversation cache
+     */
+    public Map<String, Object> getCacheStats() {
+        return chatConversationCache.getStats();
+    }
+    
+    /**
+     * Everything that happened in the user's conversations since the client's cursors:
+     * messages with id > sinceId (oldest first) and read watermarks that moved after
+     * (readSince, readSinceReaderId, readSinceOtherUserId). Each list is capped at
+     * SYNC_PAGE_SIZE; the client stores the next* cursors and calls again straight away
+     * while hasMore is true. Once caught up, both cursors step back CURSOR_SLACK_MS, so the
+     * last couple of seconds come again on the next call and the client must dedupe
+     * messages by id and read states by (reader_id, other_user_id).
+     */
+    public Map<String, Object> syncMessages(Long userId, Long sinceId, Long readSince, Long readSinceReaderId, Long readSinceOtherUserId) {
+        long from = sinceId != null ? sinceId : 0;
+        long now = System.currentTimeMillis();
+        
+        // One range read per index (sender_id, id) and (receiver_id, id); UNION drops the
+        // duplicate a message to oneself would produce
+        String columns = "SELECT " + ChatMessageRowMapper.COLUMNS + " FROM chat_messages_with_read_status ";
+        List<ChatMessage> messages = jdbcTemplate.query(
+            "(" + columns + "WHERE sender_id = ? AND id > ? ORDER BY id LIMIT ?) " +
+            "UNION (" + columns + "WHERE receiver_id = ? AND id > ? ORDER BY id LIMIT ?) " +
+            "ORDER BY id LIMIT ?",
+            ChatMessageRowMapper.INSTANCE,
+            userId, from, SYNC_PAGE_SIZE + 1, userId, from, SYNC_PAGE_SIZE + 1, SYNC_PAGE_SIZE + 1);
+        if (chatJournal.isEnabled()) {
+            TreeMap<Long, ChatMessage> merged = new TreeMap<>();
+            for (ChatMessage message : messages) {
+                merged.put(message.getId(), message);
+            }
+            for (ChatMessage message : chatJournal.getPendingForUser(userId, from)) {
+                merged.putIfAbsent(message.getId(), message);
+            }
+            messages = new ArrayList<>(merged.values());
+        }
+        boolean moreMessages = messages.size() > SYNC_PAGE_SIZE;
+        if (moreMessages) {
+            messages = messages.subList(0, SYNC_PAGE_SIZE);
+        }
+        long nextSinceId = messages.isEmpty() ? from : messages.get(messages.size() - 1).getId();
+        if (!moreMessages) {
+            // Ids are assigned before commit and by nodes with their own clocks: restart just
+            // below the slack window instead of after the last id seen
+            nextSinceId = Math.min(nextSinceId, MessageIdGenerator.firstIdAt(now - CURSOR_SLACK_MS) - 1);
         }
         
+        List<Map<String, Object>> readStates = chatInboxService.getReadChanges(userId, readSince,
+            readSinceReaderId != null ? readSinceReaderId : 0, readSinceOtherUserId != null ? readSinceOtherUserId : 0,
+            SYNC_PAGE_SIZE);
+        boolean moreReadStates = readStates.size() == SYNC_PAGE_SIZE;
+        long nextReadSince;
+        long nextReadSinceReaderId = 0;
+        long nextReadSinceOtherUserId = 0;
+        if (moreReadStates) {
+            // Continue right after the last row of the page
+            Map<String, Object> last = readStates.get(readStates.size() - 1);
+            Object lastReadAt = last.get("last_read_at");
+            // Connector/J returns DATETIME as LocalDateTime
+            nextReadSince = lastReadAt instanceof LocalDateTime
+                ? Timestamp.valueOf((LocalDateTime) lastReadAt).getTime()
+                : ((Date) lastReadAt).getTime();
+            nextReadSinceReaderId = ((Number) last.get("reader_id")).longValue();
+            nextReadSinceOtherUserId = ((Number) last.get("other_user_id")).longValue();
+        } else {
+            nextReadSince = Math.max(readSince != null ? readSince : 0, now - CURSOR_SLACK_MS);
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("messages", messages);
+        response.put("readStates", readStates);
+        response.put("nextSinceId", nextSinceId);
+        response.put("nextReadSince", nextReadSince);
+        response.put("nextReadSinceReaderId", nextReadSinceReaderId);
+        response.put("nextReadSinceOtherUserId", nextReadSinceOtherUserId);
+        response.put("hasMore", moreMessages || moreReadStates);
         return response;
     }
 }
@@ -0,0 +1,86 @@
+package klu.com.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes chat events to the live sessions of a user, over STOMP (/user/queue/...)
+ * and over Server-Sent Events for clients that cannot open a WebSocket.
+ */
+@Service
+public class ChatPushService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ChatPushService.class);
+    
+    private static final long SSE_TIMEOUT_MS = 30 * 60 * 1000L;
+    
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+    
+    private final Map<Long, List<SseEmitter>> sseEmitters = new ConcurrentHashMap<>();
+    
+    /**
+     * Register a Server-Sent Events stream for a user
+     */
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT_MS);
+        List<SseEmitter> emitters = sseEmitters.computeIfAbsent(userId, id -> new CopyOnWriteArrayList<>());
+        emitters.add(emitter);
+        
+        Runnable remove = () -> removeEmitter(userId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        return emitter;
+    }
+    
+    /**
+     * Deliver a newly saved message to both participants (the sender may have other devices open)
+     */
+    public void publishMessage(Long senderId, Long receiverId, Object message) {
+        send(receiverId, "messages", message);
+        if (!senderId.equals(receiverId)) {
+            send(senderId, "messages", message);
+        }
+    }
+    
+    /**
+     * Send an event to every live session of one user
+     */
+    public void send(Long userId, String channel, Object payload) {
+        try {
+            messagingTemplate.convertAndSendToUser(String.valueOf(userId), "/queue/" + channel, payload);
+        } catch (Exception e) {
+            logger.warn("Failed to push {} to user {}: {}", channel, userId, e.getMessage());
+        }
+        
+        List<SseEmitter> emitters = sseEmitters.get(userId);
+        if (emitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().name(channel).data(payload));
+            } catch (IOException | IllegalStateException e) {
+                removeEmitter(userId, emitter);
+            }
+        }
+    }
+    
+    private void removeEmitter(Long userId, SseEmitter emitter) {
+        sseEmitters.computeIfPresent(userId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+}
@@ -0,0 +1,242 @@
+package klu.com.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory inverted index over chat message text.
+ * Every message is indexed under both participants, so a user's index only ever
+ * contains messages from their own conversations. Posting lists hold message ids in
+ * ascending order, delta + varint encoded.
+ */
+public class ChatSearchIndex {
+    
+    private static final int MAX_TERM_LENGTH = 32;
+    
+    private static final int CHECKPOINT_MAGIC = 0x43485358; // "CHSX"
+    
+    private final Map<Long, UserIndex> users = new ConcurrentHashMap<>();
+    
+    /**
+     * Index one message for both participants. Ids must arrive in ascending order;
+     * an id not above a posting list's last id is treated as already indexed.
+     */
+    public void add(long messageId, long senderId, long receiverId, String text) {
+        Set<String> terms = tokenize(text);
+        if (terms.isEmpty()) {
+            return;
+        }
+        userIndex(senderId).add(messageId, terms);
+        if (receiverId != senderId) {
+            userIndex(receiverId).add(messageId, terms);
+        }
+    }
+    
+    /**
+     * Ids of the user's messages containing every term of the query, newest first
+     */
+    public List<Long> search(long userId, String query, Long beforeId, int limit) {
+        List<Long> result = new ArrayList<>();
+        UserIndex index = users.get(userId);
+        Set<String> terms = tokenize(query);
+        if (index == null || terms.isEmpty()) {
+            return result;
+        }
+        
+        List<long[]> postings = new ArrayList<>(terms.size());
+        synchronized (index) {
+            for (String term : terms) {
+                PostingList list = index.terms.get(term);
+                if (list == null) {
+                    return result;
+                }
+                postings.add(list.toArray());
+            }
+        }
+        
+        // Walk the shortest list from the newest id and probe the others
+        postings.sort((a, b) -> Integer.compare(a.length, b.length));
+        long[] shortest = postings.get(0);
+        for (int i = shortest.length - 1; i >= 0 && result.size() < limit; i--) {
+            long id = shortest[i];
+            if (beforeId != null && id >= beforeId) {
+                continue;
+            }
+            boolean inAll = true;
+            for (int p = 1; p < postings.size() && inAll; p++) {
+                inAll = Arrays.binarySearch(postings.get(p), id) >= 0;
+            }
+            if (inAll) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Lower-cased runs of letters and digits, each at most MAX_TERM_LENGTH long
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                String term = text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase();
+                terms.add(term);
+                start = -1;
+            }
+        }
+        return terms;
+    }
+    
+    /**
+     * Write the whole index; each user's terms are copied under that user's lock
+     */
+    public void writeTo(DataOutputStream out, long indexedUpTo) throws IOException {
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeLong(indexedUpTo);
+        
+        List<Map.Entry<Long, UserIndex>> entries = new ArrayList<>(users.entrySet());
+        out.writeInt(entries.size());
+        for (Map.Entry<Long, UserIndex> entry : entries) {
+            UserIndex index = entry.getValue();
+            out.writeLong(entry.getKey());
+            synchronized (index) {
+                out.writeInt(index.terms.size());
+                for (Map.Entry<String, PostingList> term : index.terms.entrySet()) {
+                    PostingList list = term.getValue();
+                    out.writeUTF(term.getKey());
+                    out.writeInt(list.count);
+                    out.writeLong(list.lastId);
+                    out.writeInt(list.size);
+                    out.write(list.data, 0, list.size);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Replace the contents with a checkpoint and return the id it was taken at
+     */
+    public long readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != CHECKPOINT_MAGIC) {
+            throw new IOException("Not a chat search checkpoint");
+        }
+        long indexedUpTo = in.readLong();
+        
+        users.clear();
+        int userCount = in.readInt();
+        for (int u = 0; u < userCount; u++) {
+            UserIndex index = new UserIndex();
+            long userId = in.readLong();
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readUTF();
+                PostingList list = new PostingList();
+                list.count = in.readInt();
+                list.lastId = in.readLong();
+                list.size = in.readInt();
+                list.data = new byte[Math.max(8, list.size)];
+                in.readFully(list.data, 0, list.size);
+                index.terms.put(term, list);
+            }
+            users.put(userId, index);
+        }
+        return indexedUpTo;
+    }
+    
+    public void clear() {
+        users.clear();
+    }
+    
+    /**
+     * Number of indexed users and total posting bytes
+     */
+    public long[] size() {
+        long bytes = 0;
+        for (UserIndex index : users.values()) {
+            synchronized (index) {
+                for (PostingList list : index.terms.values()) {
+                    bytes += list.size;
+                }
+            }
+        }
+        return new long[] { users.size(), bytes };
+    }
+    
+    private UserIndex userIndex(long userId) {
+        return users.computeIfAbsent(userId, id -> new UserIndex());
+    }
+    
+    private static class UserIndex {
+        private final Map<String, PostingList> terms = new HashMap<>();
+        
+        private synchronized void add(long messageId, Set<String> messageTerms) {
+            for (String term : messageTerms) {
+                terms.computeIfAbsent(term, t -> new PostingList()).add(messageId);
+            }
+        }
+    }
+    
+    /**
+     * Ascending message ids stored as varint-encoded gaps
+     */
+    static class PostingList {
+        private byte[] data = new byte[8];
+        private int size;
+        private int count;
+        private long lastId;
+        
+        void add(long id) {
+            if (count > 0 && id <= lastId) {
+                return;
+            }
+            long gap = count == 0 ? id : id - lastId;
+            if (size + 10 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((gap & ~0x7FL) != 0) {
+                data[size++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            data[size++] = (byte) gap;
+            lastId = id;
+            count++;
+        }
+        
+        long[] toArray() {
+            long[] ids = new long[count];
+            long current = 0;
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                long gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    gap |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                current += gap;
+                ids[i] = current;
+            }
+            return ids;
+        }
+    }
+}
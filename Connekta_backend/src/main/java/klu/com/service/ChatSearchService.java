@@ -0,0 +1,190 @@
+package klu.com.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import klu.com.model.ChatMessage;
+
+/**
+ * Full-text search over chat messages.
+ * The inverted index lives in memory (see ChatSearchIndex) and is fed by the batch writer
+ * after each commit. It is checkpointed to chat.search.dir periodically; on startup the
+ * checkpoint is loaded and whatever was inserted after it is read back from chat_messages.
+ * Messages sent while that catch-up is running are queued and applied once it finishes,
+ * so every posting list still receives ids in ascending order. A failed catch-up query is
+ * retried from the last id read; the index is not checkpointed until the catch-up completes.
+ */
+@Service
+public class ChatSearchService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ChatSearchService.class);
+    
+    private static final String CHECKPOINT_FILE = "chat-search.idx";
+    
+    @Value("${chat.search.dir:chat-search}")
+    private String searchDir;
+    
+    @Value("${chat.search.catch-up-batch-size:10000}")
+    private int catchUpBatchSize;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    private final ChatSearchIndex index = new ChatSearchIndex();
+    
+    // Live messages that arrived before the catch-up completed; guarded by this
+    private List<Object[]> pendingLive = new ArrayList<>();
+    
+    private volatile boolean ready;
+    
+    private volatile long indexedUpTo;
+    
+    /**
+     * Called by the write path once a message is committed
+     */
+    public void indexMessage(long messageId, long senderId, long receiverId, String text) {
+        if (!ready) {
+            synchronized (this) {
+                if (pendingLive != null) {
+                    pendingLive.add(new Object[] { messageId, senderId, receiverId, text });
+                    return;
+                }
+            }
+        }
+        index.add(messageId, senderId, receiverId, text);
+        indexedUpTo = Math.max(indexedUpTo, messageId);
+    }
+    
+    /**
+     * Messages of the user's conversations matching every term of the query, newest first
+     */
+    public List<ChatMessage> search(Long userId, String query, Long beforeId, int limit) {
+        List<Long> ids = index.search(userId, query, beforeId, limit);
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        // Archived messages are no longer in the table and drop out of the result
+        String sql = "SELECT " + ChatMessageRowMapper.COLUMNS + " FROM chat_messages_with_read_status " +
+            "WHERE id IN (" + placeholders + ") ORDER BY id DESC";
+        return jdbcTemplate.query(sql, ChatMessageRowMapper.INSTANCE, ids.toArray());
+    }
+    
+    /**
+     * Whether the startup catch-up has finished (results may be incomplete before that)
+     */
+    public boolean isReady() {
+        return ready;
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread loader = new Thread(this::load, "chat-search-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    private void load() {
+        long from = 0;
+        Path checkpoint = Paths.get(searchDir, CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+                from = index.readFrom(in);
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable chat search checkpoint, rebuilding from the table", e);
+                from = 0;
+                index.clear();
+            }
+        }
+        
+        long lastId = from;
+        long backoffMs = 100;
+        while (true) {
+            try {
+                List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                    "SELECT id, sender_id, receiver_id, message_text FROM chat_messages WHERE id > ? ORDER BY id LIMIT ?",
+                    lastId, catchUpBatchSize);
+                for (Map<String, Object> row : rows) {
+                    lastId = ((Number) row.get("id")).longValue();
+                    index.add(lastId,
+                        ((Number) row.get("sender_id")).longValue(),
+                        ((Number) row.get("receiver_id")).longValue(),
+                        (String) row.get("message_text"));
+                }
+                if (rows.size() < catchUpBatchSize) {
+                    break;
+                }
+                backoffMs = 100;
+            } catch (Exception e) {
+                // Not ready until the table is read to the end: checkpointing now would skip the rest for good
+                logger.warn("Chat search catch-up failed at message {}, retrying in {} ms: {}", lastId, backoffMs, e.getMessage());
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoffMs = Math.min(backoffMs * 2, 10_000);
+            }
+        }
+        
+        // Live messages at or below lastId were already read from the table and are skipped
+        synchronized (this) {
+            for (Object[] message : pendingLive) {
+                index.add((Long) message[0], (Long) message[1], (Long) message[2], (String) message[3]);
+                lastId = Math.max(lastId, (Long) message[0]);
+            }
+            pendingLive = null;
+            indexedUpTo = lastId;
+            ready = true;
+        }
+        logger.info("Chat search index ready up to message {}", lastId);
+    }
+    
+    /**
+     * Write the index to a temporary file and move it over the previous checkpoint
+     */
+    @Scheduled(fixedDelayString = "${chat.search.checkpoint-ms:300000}")
+    @PreDestroy
+    public synchronized void checkpoint() {
+        if (!ready) {
+            return;
+        }
+        
+        // Taken before writing: anything indexed meanwhile is re-read on startup and skipped as a duplicate
+        long upTo = indexedUpTo;
+        try {
+            Path directory = Files.createDirectories(Paths.get(searchDir));
+            Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                index.writeTo(out, upTo);
+            }
+            Files.move(tmp, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to checkpoint chat search index", e);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package klu.com.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory graph of accepted friendships.
+ * Users are slots of an open-addressing table keyed by user id; each slot holds the user's
+ * friend ids as a sorted long array with spare capacity, so membership is a binary search and
+ * mutual friends are a merge of two arrays, without boxing a single id.
+ * User ids must be positive (0 marks a free slot).
+ */
+public class FriendGraph {
+    
+    private static final long FREE = 0;
+    
+    private static final long[] NO_FRIENDS = new long[0];
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private long[] keys = new long[1024];
+    private long[][] friends = new long[1024][];
+    private int[] degrees = new int[1024];
+    private int users;
+    
+    // Sum of all degrees, two per friendship
+    private long ends;
+    
+    /**
+     * A suggested user and how many friends they share with the user the suggestion is for
+     */
+    public static final class Suggestion {
+        
+        private final long userId;
+        private final int mutualFriends;
+        
+        Suggestion(long userId, int mutualFriends) {
+            this.userId = userId;
+            this.mutualFriends = mutualFriends;
+        }
+        
+        public long getUserId() {
+            return userId;
+        }
+        
+        public int getMutualFriends() {
+            return mutualFriends;
+        }
+    }
+    
+    /**
+     * Records that a and b are friends. Already friends, a == b or a non-positive id is ignored.
+     */
+    public void addFriendship(long a, long b) {
+        if (a == b || a <= 0 || b <= 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (insert(slotFor(a), b)) {
+                insert(slotFor(b), a);
+                ends += 2;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Records that a and b are no longer friends
+     */
+    public void removeFriendship(long a, long b) {
+        lock.writeLock().lock();
+        try {
+            int slotA = find(a);
+            int slotB = find(b);
+            if (slotA >= 0 && slotB >= 0 && delete(slotA, b)) {
+                delete(slotB, a);
+                ends -= 2;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds many friendships at once: pairs[2i] and pairs[2i + 1] for i below count.
+     * Much cheaper than addFriendship per pair when building the graph from the table,
+     * because every adjacency array is sorted once at the end instead of on every insert.
+     */
+    public void addAll(long[] pairs, int count) {
+        lock.writeLock().lock();
+        try {
+            // Users whose arrays get unsorted appends; sorted and deduplicated at the end
+            long[] touched = new long[Math.max(16, count * 2)];
+            int touchedCount = 0;
+            for (int i = 0; i < count; i++) {
+                long a = pairs[2 * i];
+                long b = pairs[2 * i + 1];
+                if (a == b || a <= 0 || b <= 0) {
+                    continue;
+                }
+                append(slotFor(a), b);
+                append(slotFor(b), a);
+                touched[touchedCount++] = a;
+                touched[touchedCount++] = b;
+            }
+            for (long userId : distinctSorted(touched, touchedCount)) {
+                int slot = find(userId);
+                long[] sorted = distinctSorted(friends[slot], degrees[slot]);
+                ends += sorted.length - degrees[slot];
+                friends[slot] = sorted;
+                degrees[slot] = sorted.length;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * The user's friend ids in ascending order (a copy)
+     */
+    public long[] friendsOf(long userId) {
+        lock.readLock().lock();
+        try {
+            int slot = find(userId);
+            return slot < 0 ? NO_FRIENDS : Arrays.copyOf(friends[slot], degrees[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public boolean areFriends(long a, long b) {
+        lock.readLock().lock();
+        try {
+            int slot = find(a);
+            return slot >= 0 && Arrays.binarySearch(friends[slot], 0, degrees[slot], b) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int mutualFriendCount(long a, long b) {
+        lock.readLock().lock();
+        try {
+            int slotA = find(a);
+            int slotB = find(b);
+            if (slotA < 0 || slotB < 0) {
+                return 0;
+            }
+            long[] x = friends[slotA];
+            long[] y = friends[slotB];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while (i < degrees[slotA] && j < degrees[slotB]) {
+                if (x[i] < y[j]) {
+                    i++;
+                } else if (x[i] > y[j]) {
+                    j++;
+                } else {
+                    count++;
+                    i++;
+                    j++;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Whether a and b share at least one friend: each friend of the one with fewer friends is
+     * looked up in the other's array, stopping at the first hit
+     */
+    public boolean haveMutualFriend(long a, long b) {
+        lock.readLock().lock();
+        try {
+            int slotA = find(a);
+            int slotB = find(b);
+            if (slotA < 0 || slotB < 0) {
+                return false;
+            }
+            int small = degrees[slotA] <= degrees[slotB] ? slotA : slotB;
+            int large = small == slotA ? slotB : slotA;
+            for (int i = 0; i < degrees[small]; i++) {
+                if (Arrays.binarySearch(friends[large], 0, degrees[large], friends[small][i]) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Ids of the friends of the user's friends who are neither the user nor a friend, ascending
+     */
+    public long[] friendsOfFriends(long userId) {
+        lock.readLock().lock();
+        try {
+            long[] reached = reachedThroughFriends(userId);
+            return distinctSorted(reached, reached.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Up to limit friends of friends who are not friends yet, most mutual friends first
+     * (then lower user id)
+     */
+    public List<Suggestion> suggestions(long userId, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        long[] reached;
+        lock.readLock().lock();
+        try {
+            reached = reachedThroughFriends(userId);
+        } finally {
+            lock.readLock().unlock();
+        }
+        Arrays.sort(reached);
+        
+        // Worse suggestions first: fewer mutual friends, then higher user id
+        PriorityQueue<long[]> best = new PriorityQueue<>(limit + 1,
+            (a, b) -> a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(b[0], a[0]));
+        for (int i = 0; i < reached.length; ) {
+            // A candidate is reached once through every mutual friend
+            int run = i;
+            while (run < reached.length && reached[run] == reached[i]) {
+                run++;
+            }
+            long candidate = reached[i];
+            int mutual = run - i;
+            i = run;
+            // Only allocate for candidates that beat the worst suggestion kept so far
+            if (best.size() == limit) {
+                long[] worst = best.peek();
+                if (mutual < worst[1] || (mutual == worst[1] && candidate > worst[0])) {
+                    continue;
+                }
+            }
+            best.add(new long[] { candidate, mutual });
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        
+        Suggestion[] result = new Suggestion[best.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            long[] entry = best.poll();
+            result[i] = new Suggestion(entry[0], (int) entry[1]);
+        }
+        return new ArrayList<>(Arrays.asList(result));
+    }
+    
+    /**
+     * Users with at least one slot (including users whose friends were all removed)
+     */
+    public int userCount() {
+        lock.readLock().lock();
+        try {
+            return users;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public long friendshipCount() {
+        lock.readLock().lock();
+        try {
+            return ends / 2;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Every friend of every friend that is not the user or a friend, once per friend it was reached through
+    private long[] reachedThroughFriends(long userId) {
+        int slot = find(userId);
+        if (slot < 0) {
+            return NO_FRIENDS;
+        }
+        long[] own = friends[slot];
+        int degree = degrees[slot];
+        long[] reached = new long[16];
+        int size = 0;
+        for (int i = 0; i < degree; i++) {
+            int friendSlot = find(own[i]);
+            for (int j = 0; j < degrees[friendSlot]; j++) {
+                long candidate = friends[friendSlot][j];
+                if (candidate != userId && Arrays.binarySearch(own, 0, degree, candidate) < 0) {
+                    if (size == reached.length) {
+                        reached = Arrays.copyOf(reached, size * 2);
+                    }
+                    reached[size++] = candidate;
+                }
+            }
+        }
+        return Arrays.copyOf(reached, size);
+    }
+    
+    private int find(long userId) {
+        if (userId <= 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash(userId) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == userId) {
+                return slot;
+            }
+            if (keys[slot] == FREE) {
+                return -1;
+            }
+        }
+    }
+    
+    private int slotFor(long userId) {
+        int slot = find(userId);
+        if (slot >= 0) {
+            return slot;
+        }
+        if ((users + 1) * 2 > keys.length) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        slot = hash(userId) & mask;
+        while (keys[slot] != FREE) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = userId;
+        friends[slot] = NO_FRIENDS;
+        degrees[slot] = 0;
+        users++;
+        return slot;
+    }
+    
+    private void resize() {
+        long[] oldKeys = keys;
+        long[][] oldFriends = friends;
+        int[] oldDegrees = degrees;
+        int capacity = oldKeys.length * 2;
+        keys = new long[capacity];
+        friends = new long[capacity][];
+        degrees = new int[capacity];
+        int mask = capacity - 1;
+        for (int old = 0; old < oldKeys.length; old++) {
+            if (oldKeys[old] == FREE) {
+                continue;
+            }
+            int slot = hash(oldKeys[old]) & mask;
+            while (keys[slot] != FREE) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[old];
+            friends[slot] = oldFriends[old];
+            degrees[slot] = oldDegrees[old];
+        }
+    }
+    
+    // Keeps the array sorted; false if the friend was already there
+    private boolean insert(int slot, long friendId) {
+        int degree = degrees[slot];
+        int at = Arrays.binarySearch(friends[slot], 0, degree, friendId);
+        if (at >= 0) {
+            return false;
+        }
+        at = -at - 1;
+        if (degree == friends[slot].length) {
+            friends[slot] = Arrays.copyOf(friends[slot], Math.max(4, degree * 2));
+        }
+        System.arraycopy(friends[slot], at, friends[slot], at + 1, degree - at);
+        friends[slot][at] = friendId;
+        degrees[slot] = degree + 1;
+        return true;
+    }
+    
+    private boolean delete(int slot, long friendId) {
+        int degree = degrees[slot];
+        int at = Arrays.binarySearch(friends[slot], 0, degree, friendId);
+        if (at < 0) {
+            return false;
+        }
+        System.arraycopy(friends[slot], at + 1, friends[slot], at, degree - at - 1);
+        degrees[slot] = degree - 1;
+        return true;
+    }
+    
+    // Unsorted append, only while addAll runs
+    private void append(int slot, long friendId) {
+        int degree = degrees[slot];
+        if (degree == friends[slot].length) {
+            friends[slot] = Arrays.copyOf(friends[slot], Math.max(4, degree * 2));
+        }
+        friends[slot][degree] = friendId;
+        degrees[slot] = degree + 1;
+        ends++;
+    }
+    
+    private static long[] distinctSorted(long[] values, int size) {
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+    }
+    
+    private static int hash(long userId) {
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,194 @@
+package klu.com.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import klu.com.repository.FriendsRepository;
+
+/**
+ * Friend lists, mutual friends and suggestions.
+ * Served from an in-memory FriendGraph of the accepted rows of the friends table, built in
+ * the background at startup and kept current by FriendsManager whenever a friendship starts
+ * or ends. Until the build finishes, each call builds a small graph of the user's friends and
+ * their friends from the table instead; a failed build query is retried with backoff.
+ * Like the user search index, the graph only sees changes made through this node.
+ */
+@Service
+public class FriendGraphService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(FriendGraphService.class);
+    
+    public static final int PROXIMITY_FRIEND = 2;
+    
+    public static final int PROXIMITY_FRIEND_OF_FRIEND = 1;
+    
+    public static final int PROXIMITY_NONE = 0;
+    
+    @Value("${friends.graph.load-batch-size:10000}")
+    private int loadBatchSize;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private FriendsRepository friendsRepository;
+    
+    private final FriendGraph graph = new FriendGraph();
+    
+    // Changes made before the startup build completed, replayed in order: { a, b, 1 added / 0 removed }; guarded by this
+    private List<long[]> pendingLive = new ArrayList<>();
+    
+    private volatile boolean ready;
+    
+    /**
+     * Called once a friendship between a and b is accepted
+     */
+    public void friendshipStarted(long a, long b) {
+        if (record(a, b, 1)) {
+            graph.addFriendship(a, b);
+        }
+    }
+    
+    /**
+     * Called once a friendship between a and b is removed or turned into a block
+     */
+    public void friendshipEnded(long a, long b) {
+        if (record(a, b, 0)) {
+            graph.removeFriendship(a, b);
+        }
+    }
+    
+    /**
+     * The user's friend ids in ascending order
+     */
+    public long[] getFriendIds(long userId) {
+        return graphFor(userId).friendsOf(userId);
+    }
+    
+    /**
+     * How close each other user is to userId: PROXIMITY_FRIEND, PROXIMITY_FRIEND_OF_FRIEND or
+     * PROXIMITY_NONE. Each call checks only the user it is asked about (a binary search, then
+     * a search for one shared friend), so ranking a few candidates never expands all friends of friends.
+     */
+    public LongToIntFunction proximityTo(long userId) {
+        FriendGraph source = graphFor(userId);
+        return otherUserId -> source.areFriends(userId, otherUserId) ? PROXIMITY_FRIEND
+            : otherUserId != userId && source.haveMutualFriend(userId, otherUserId) ? PROXIMITY_FRIEND_OF_FRIEND
+            : PROXIMITY_NONE;
+    }
+    
+    public int getMutualFriendCount(long userId, long otherUserId) {
+        return graphFor(userId).mutualFriendCount(userId, otherUserId);
+    }
+    
+    /**
+     * Up to limit friends of friends, most mutual friends first
+     */
+    public List<FriendGraph.Suggestion> getSuggestions(long userId, int limit) {
+        return graphFor(userId).suggestions(userId, limit);
+    }
+    
+    public boolean isReady() {
+        return ready;
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread loader = new Thread(this::load, "friend-graph-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    // False while the build is still running; the change is then replayed after it
+    private boolean record(long a, long b, long added) {
+        if (!ready) {
+            synchronized (this) {
+                if (pendingLive != null) {
+                    pendingLive.add(new long[] { a, b, added });
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    // The whole graph once built, otherwise the user's two-hop neighbourhood from the table
+    private FriendGraph graphFor(long userId) {
+        if (ready) {
+            return graph;
+        }
+        List<Long> friendIds = friendsRepository.findFriendIds(userId);
+        FriendGraph neighbourhood = new FriendGraph();
+        if (friendIds.isEmpty()) {
+            return neighbourhood;
+        }
+        List<Object[]> rows = friendsRepository.findAcceptedPairsOf(friendIds);
+        long[] pairs = new long[rows.size() * 2];
+        for (int i = 0; i < rows.size(); i++) {
+            pairs[2 * i] = (Long) rows.get(i)[0];
+            pairs[2 * i + 1] = (Long) rows.get(i)[1];
+        }
+        neighbourhood.addAll(pairs, rows.size());
+        return neighbourhood;
+    }
+    
+    private void load() {
+        long lastId = 0;
+        long[] pairs = new long[loadBatchSize * 2];
+        long backoffMs = 100;
+        while (true) {
+            try {
+                long[] cursor = { lastId };
+                int[] count = { 0 };
+                jdbcTemplate.query(
+                    "SELECT id, sender_id, receiver_id FROM friends WHERE id > ? AND status = 'accepted' ORDER BY id LIMIT ?",
+                    rs -> {
+                        cursor[0] = rs.getLong(1);
+                        pairs[2 * count[0]] = rs.getLong(2);
+                        pairs[2 * count[0] + 1] = rs.getLong(3);
+                        count[0]++;
+                    },
+                    lastId, loadBatchSize);
+                graph.addAll(pairs, count[0]);
+                lastId = cursor[0];
+                if (count[0] < loadBatchSize) {
+                    break;
+                }
+                backoffMs = 100;
+            } catch (Exception e) {
+                // Batches already added stay; live changes keep queueing until the build completes
+                logger.warn("Friend graph build failed after friendship {}, retrying in {} ms: {}", lastId, backoffMs, e.getMessage());
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoffMs = Math.min(backoffMs * 2, 10_000);
+            }
+        }
+        
+        // Replaying in order leaves each pair as its latest change made it, whether or not the build saw it
+        synchronized (this) {
+            for (long[] change : pendingLive) {
+                if (change[2] == 1) {
+                    graph.addFriendship(change[0], change[1]);
+                } else {
+                    graph.removeFriendship(change[0], change[1]);
+                }
+            }
+            pendingLive = null;
+            ready = true;
+        }
+        logger.info("Friend graph ready with {} friendships between {} users", graph.friendshipCount(), graph.userCount());
+    }
+}
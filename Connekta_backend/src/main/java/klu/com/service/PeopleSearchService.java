@@ -0,0 +1,105 @@
+package klu.com.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongToIntFunction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import klu.com.repository.FriendsRepository;
+
+/**
+ * Typeahead people search: text matches from the in-memory user index, ranked friends first,
+ * then friends of friends (both from the friend graph), then everyone else, with the caller's
+ * relationship to every hit resolved in one batched query.
+ */
+@Service
+public class PeopleSearchService {
+    
+    public static final String PROXIMITY_FRIEND = "friend";
+    public static final String PROXIMITY_FRIEND_OF_FRIEND = "friend_of_friend";
+    public static final String PROXIMITY_NONE = "none";
+    
+    @Autowired
+    private UserSearchService userSearchService;
+    
+    @Autowired
+    private FriendsRepository friendsRepository;
+    
+    @Autowired
+    private FriendGraphService friendGraphService;
+    
+    /**
+     * Top matches for the query with "id", "fullname", "email", "proximity",
+     * "friendshipStatus" ("none" without a relationship) and "requestSent"
+     */
+    public List<Map<String, Object>> typeahead(Long userId, String query, Integer limit) {
+        // Classifies only the users the search ranks, instead of expanding every friend of a friend
+        LongToIntFunction proximity = friendGraphService.proximityTo(userId);
+        List<Map<String, Object>> hits = userSearchService.search(query, userId, limit, proximity);
+        
+        List<Long> hitIds = new ArrayList<>(hits.size());
+        for (Map<String, Object> hit : hits) {
+            hitIds.add((Long) hit.get("id"));
+        }
+        Map<Long, Relationship> relationships = getRelationships(userId, hitIds);
+        
+        for (Map<String, Object> hit : hits) {
+            Long id = (Long) hit.get("id");
+            int tier = proximity.applyAsInt(id);
+            hit.put("proximity", tier == FriendGraphService.PROXIMITY_FRIEND ? PROXIMITY_FRIEND
+                : tier == FriendGraphService.PROXIMITY_FRIEND_OF_FRIEND ? PROXIMITY_FRIEND_OF_FRIEND : PROXIMITY_NONE);
+            Relationship relationship = relationships.get(id);
+            hit.put("friendshipStatus", relationship != null ? relationship.status : "none");
+            hit.put("requestSent", relationship != null && relationship.isPendingFrom(userId));
+        }
+        return hits;
+    }
+    
+    /**
+     * The relationship between the user and each of the others that has one, in one query
+     */
+    public Map<Long, Relationship> getRelationships(Long userId, Collection<Long> otherIds) {
+        Map<Long, Relationship> relationships = new HashMap<>();
+        if (otherIds.isEmpty()) {
+            return relationships;
+        }
+        for (Object[] row : friendsRepository.findRelationships(userId, otherIds)) {
+            Long senderId = (Long) row[0];
+            Long receiverId = (Long) row[1];
+            relationships.put(senderId.equals(userId) ? receiverId : senderId,
+                new Relationship(senderId, (String) row[2]));
+        }
+        return relationships;
+    }
+    
+    /**
+     * Who started a relationship and its status ("pending", "accepted", "rejected", "blocked")
+     */
+    public static final class Relationship {
+        
+        private final Long senderId;
+        private final String status;
+        
+        Relationship(Long senderId, String status) {
+            this.senderId = senderId;
+            this.status = status;
+        }
+        
+        public Long getSenderId() {
+            return senderId;
+        }
+        
+        public String getStatus() {
+            return status;
+        }
+        
+        public boolean isPendingFrom(Long userId) {
+            return "pending".equals(status) && senderId.equals(userId);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package klu.com.service;
 
-import klu.com.model.JWTManager;
+import klu.com.model.AuthenticatedUser;
 import klu.com.model.Post;
 import klu.com.model.Users;
 import klu.com.repository.PostRepository;
@@ -13,7 +13,6 @@ import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 @Service
 public class PostService {
@@ -27,39 +26,26 @@ public class PostService {
     @Autowired
     private UsersRepository usersRepository;
     
-    @Autowired
-    private JWTManager jwtManager;
-    
     /**
      * Create a new post with image data
      */
-    public Map<String, Object> createPost(String token, String caption, String imageData, String visibility) {
+    public Map<String, Object> createPost(AuthenticatedUser principal, String caption, String imageData, String visibility) {
         Map<String, Object> response = new HashMap<>();
         
         try {
             System.out.println("Creating post with caption: " + caption);
             System.out.println("Image data present: " + (imageData != null && !imageData.isEmpty()));
             
-            // Validate token
-            String email = jwtManager.validateToken(token);
-            if ("401".equals(email)) {
+            if (principal == null) {
                 System.out.println("Invalid token");
                 response.put("status", "error");
                 response.put("message", "Invalid or expired token");
                 return response;
             }
             
-            // Get user
-            Optional<Users> userOpt = usersRepository.findByEmail(email);
-            if (!userOpt.isPresent()) {
-                System.out.println("User not found");
-                response.put("status", "error");
-                response.put("message", "User not found");
-                return response;
-            }
-            
-            Users user = userOpt.get();
-            System.out.println("User found: " + user.getFullname());
+            // The post only needs the user's id, so reference the row instead of loading it
+            Users user = usersRepository.getReferenceById(principal.getId());
+            System.out.println("User found: " + principal.getFullname());
             
             // Create post entity
             Post post = new Post();
@@ -91,10 +77,8 @@ public class PostService {
     /**
      * Get recent posts for feed
      */
-    public List<Map<String, Object>> getRecentPosts(String token) {
-        // Validate token
-        String email = jwtManager.validateToken(token);
-        if ("401".equals(email)) {
+    public List<Map<String, Object>> getRecentPosts(AuthenticatedUser principal) {
+        if (principal == null) {
             return List.of();
         }
         
@@ -109,10 +93,8 @@ public class PostService {
     /**
      * Get posts by a specific user
      */
-    public List<Map<String, Object>> getUserPosts(String token, Long userId) {
-        // Validate token
-        String email = jwtManager.validateToken(token);
-        if ("401".equals(email)) {
+    public List<Map<String, Object>> getUserPosts(AuthenticatedUser principal, Long userId) {
+        if (principal == null) {
             return List.of();
         }
         
@@ -128,13 +110,11 @@ public class PostService {
     /**
      * Like a post
      */
-    public Map<String, Object> likePost(String token, Long postId) {
+    public Map<String, Object> likePost(AuthenticatedUser principal, Long postId) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            // Validate token
-            String email = jwtManager.validateToken(token);
-            if ("401".equals(email)) {
+            if (principal == null) {
                 response.put("status", "error");
                 response.put("message", "Invalid or expired token");
                 return response;
@@ -0,0 +1,209 @@
+package klu.com.service;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import jakarta.annotation.PostConstruct;
+import klu.com.model.ChatMessage;
+
+/**
+ * Who is online, kept entirely in memory.
+ * A user is online while they have an open WebSocket session or sent a heartbeat within
+ * chat.presence.ttl-ms. Live users sit in a ConcurrentHashMap (updated with compute, so
+ * only the user's own bin is locked); expiry is driven by a timing wheel of one-second
+ * slots, so the sweep only looks at users whose deadline falls into the elapsed slots.
+ * Expired users move to a last-seen map.
+ */
+@Service
+public class PresenceService {
+    
+    private static final long TICK_MS = 1000;
+    
+    @Value("${chat.presence.ttl-ms:30000}")
+    private long ttlMs;
+    
+    @Autowired
+    private ChatPushService chatPushService;
+    
+    private final ConcurrentHashMap<Long, Presence> online = new ConcurrentHashMap<>();
+    
+    private final ConcurrentHashMap<Long, Long> lastSeen = new ConcurrentHashMap<>();
+    
+    // Slot i holds users whose deadline tick is congruent to i; a user may sit in stale slots too
+    private Set<Long>[] wheel;
+    
+    private long lastTick;
+    
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        // Large enough that a deadline never wraps past the current tick
+        int slots = (int) (ttlMs / TICK_MS) + 2;
+        wheel = new Set[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+        lastTick = System.currentTimeMillis() / TICK_MS;
+    }
+    
+    /**
+     * Extend the user's presence by the TTL
+     */
+    public void heartbeat(Long userId) {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + ttlMs;
+        Presence presence = online.compute(userId, (id, current) -> {
+            Presence p = current != null ? current : new Presence();
+            p.lastSeen = now;
+            p.expiresAt = expiresAt;
+            return p;
+        });
+        schedule(userId, presence.expiresAt);
+    }
+    
+    /**
+     * A WebSocket session of the user opened; online until it closes
+     */
+    public void connected(Long userId) {
+        long now = System.currentTimeMillis();
+        online.compute(userId, (id, current) -> {
+            Presence p = current != null ? current : new Presence();
+            p.sessions++;
+            p.lastSeen = now;
+            p.expiresAt = Math.max(p.expiresAt, now + ttlMs);
+            return p;
+        });
+    }
+    
+    /**
+     * A WebSocket session closed; without other sessions the user expires after the TTL
+     */
+    public void disconnected(Long userId) {
+        long now = System.currentTimeMillis();
+        Presence presence = online.computeIfPresent(userId, (id, p) -> {
+            p.sessions = Math.max(0, p.sessions - 1);
+            p.lastSeen = now;
+            p.expiresAt = now + ttlMs;
+            return p;
+        });
+        if (presence != null) {
+            schedule(userId, presence.expiresAt);
+        }
+    }
+    
+    @EventListener
+    public void onSessionConnected(SessionConnectedEvent event) {
+        Long userId = sessionUserId(event.getUser());
+        if (userId != null) {
+            connected(userId);
+        }
+    }
+    
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        Long userId = sessionUserId(event.getUser());
+        if (userId != null) {
+            disconnected(userId);
+        }
+    }
+    
+    /**
+     * WebSocket principals are named after the user id (see WebSocketConfig)
+     */
+    public static Long sessionUserId(Principal principal) {
+        if (principal == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(principal.getName());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Presence of each user: userId, online, lastSeen (epoch millis, null if never seen)
+     */
+    public List<Map<String, Object>> getPresence(List<Long> userIds) {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> result = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            Presence presence = online.get(userId);
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("userId", userId);
+            if (presence != null) {
+                entry.put("online", presence.sessions > 0 || presence.expiresAt > now);
+                entry.put("lastSeen", presence.lastSeen);
+            } else {
+                entry.put("online", false);
+                entry.put("lastSeen", lastSeen.get(userId));
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+    
+    public int getOnlineCount() {
+        return online.size();
+    }
+    
+    /**
+     * Tell the other participant that the user started or stopped typing.
+     * Clients should drop the indicator if no refresh arrives within a few seconds.
+     */
+    public void publishTyping(Long userId, Long otherUserId, boolean typing) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("userId", userId);
+        event.put("conversationKey", ChatMessage.conversationKey(userId, otherUserId));
+        event.put("typing", typing);
+        chatPushService.send(otherUserId, "typing", event);
+    }
+    
+    /**
+     * Advance the wheel and drop users whose presence ran out
+     */
+    @Scheduled(fixedRate = TICK_MS)
+    public synchronized void expire() {
+        long now = System.currentTimeMillis();
+        long currentTick = now / TICK_MS;
+        for (long tick = lastTick + 1; tick <= currentTick; tick++) {
+            Set<Long> slot = wheel[(int) (tick % wheel.length)];
+            for (Long userId : slot) {
+                slot.remove(userId);
+                online.computeIfPresent(userId, (id, p) -> {
+                    if (p.sessions > 0 || p.expiresAt > now) {
+                        return p;
+                    }
+                    lastSeen.put(id, p.lastSeen);
+                    return null;
+                });
+            }
+        }
+        lastTick = currentTick;
+    }
+    
+    private void schedule(Long userId, long expiresAt) {
+        // Rounded up, so the slot is only swept once the deadline has passed
+        long tick = (expiresAt + TICK_MS - 1) / TICK_MS;
+        wheel[(int) (tick % wheel.length)].add(userId);
+    }
+    
+    private static class Presence {
+        private volatile int sessions;
+        private volatile long lastSeen;
+        private volatile long expiresAt;
+    }
+}
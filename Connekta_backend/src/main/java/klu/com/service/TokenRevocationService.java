@@ -0,0 +1,123 @@
+package klu.com.service;
+
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import klu.com.util.BloomFilter;
+
+/**
+ * Deny list of revoked JWT ids (jti), checked by JWTManager on every validation.
+ * The revoked_tokens table is the source of truth. Each node keeps the ids of revoked,
+ * not yet expired tokens in memory: a Bloom filter answers the common "not revoked" case
+ * and the exact map settles the filter's rare false positives, so no check hits the database.
+ * Other nodes' revocations arrive by polling the table every auth.revocation.poll-ms.
+ */
+@Service
+public class TokenRevocationService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TokenRevocationService.class);
+    
+    // Rows committed slightly out of revoked_at order are still picked up by the next poll
+    private static final long POLL_SLACK_MS = 5000;
+    
+    private static final int BLOOM_HASHES = 4;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Value("${auth.revocation.bloom-bits:1048576}")
+    private long bloomBits = 1 << 20;
+    
+    // jti -> expiry (epoch ms) of every revoked token that has not expired yet
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    
+    private volatile BloomFilter bloom = new BloomFilter(bloomBits, BLOOM_HASHES);
+    
+    // Newest revoked_at seen so far (database clock)
+    private long pollCursor;
+    
+    @PostConstruct
+    public void load() {
+        bloom = new BloomFilter(bloomBits, BLOOM_HASHES);
+        poll();
+    }
+    
+    /**
+     * Whether the token with this id was revoked. Never touches the database.
+     */
+    public boolean isRevoked(String jti) {
+        if (jti == null || !bloom.mightContain(jti)) {
+            return false;
+        }
+        return revoked.containsKey(jti);
+    }
+    
+    /**
+     * Revokes a token until its expiry: effective on this node at once, on others after their next poll
+     */
+    public void revoke(String jti, long expiresAt) {
+        remember(jti, expiresAt);
+        // Stamped by the database, like the cursor every node polls with, so node clocks never matter
+        jdbcTemplate.update(
+            "INSERT IGNORE INTO revoked_tokens (jti, expires_at, revoked_at) VALUES (?, ?, NOW(3))",
+            jti, new Timestamp(expiresAt));
+    }
+    
+    /**
+     * Picks up revocations made on any node since the last poll
+     */
+    @Scheduled(fixedDelayString = "${auth.revocation.poll-ms:5000}")
+    public synchronized void poll() {
+        try {
+            Timestamp since = new Timestamp(Math.max(0, pollCursor - POLL_SLACK_MS));
+            jdbcTemplate.query(
+                "SELECT jti, expires_at, revoked_at FROM revoked_tokens WHERE revoked_at >= ? AND expires_at > NOW(3)",
+                rs -> {
+                    remember(rs.getString(1), rs.getTimestamp(2).getTime());
+                    pollCursor = Math.max(pollCursor, rs.getTimestamp(3).getTime());
+                },
+                since);
+        } catch (Exception e) {
+            logger.warn("Could not refresh revoked tokens: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Forgets expired revocations, here and in the table, and rebuilds the Bloom filter
+     * so it does not fill up with ids that no longer matter
+     */
+    @Scheduled(fixedDelayString = "${auth.revocation.purge-ms:3600000}")
+    public synchronized void purgeExpired() {
+        long now = System.currentTimeMillis();
+        if (revoked.values().removeIf(expiresAt -> expiresAt <= now)) {
+            BloomFilter rebuilt = new BloomFilter(bloomBits, BLOOM_HASHES);
+            revoked.keySet().forEach(rebuilt::add);
+            bloom = rebuilt;
+            // An id revoked during the rebuild may have missed the new filter
+            revoked.keySet().forEach(rebuilt::add);
+        }
+        try {
+            jdbcTemplate.update("DELETE FROM revoked_tokens WHERE expires_at <= ?", new Timestamp(now));
+        } catch (Exception e) {
+            logger.warn("Could not purge revoked tokens: {}", e.getMessage());
+        }
+    }
+    
+    private void remember(String jti, long expiresAt) {
+        if (expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        revoked.put(jti, expiresAt);
+        bloom.add(jti);
+    }
+}
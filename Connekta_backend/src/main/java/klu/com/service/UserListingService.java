@@ -0,0 +1,114 @@
+package klu.com.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Lists users (id, fullname, email) without loading the whole table:
+ * keyset pages ordered by id, or one JSON array streamed straight from a JDBC cursor.
+ * Password hashes are never selected.
+ */
+@Service
+public class UserListingService {
+    
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    
+    public static final int MAX_PAGE_SIZE = 1000;
+    
+    // Connector/J streams rows one at a time instead of buffering the result set for this fetch size
+    private static final int MYSQL_STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    /**
+     * Users with an id above afterId, in id order, as maps keyed by idField, "fullname" and "email".
+     * The result has "users", "nextAfterId" (pass it back for the next page) and "hasMore".
+     */
+    public Map<String, Object> getPage(Long afterId, Integer limit, Long excludeUserId, String idField) {
+        int pageSize = limit == null || limit <= 0 ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        long after = afterId != null ? afterId : 0;
+        long exclude = excludeUserId != null ? excludeUserId : -1;
+        
+        // One extra row tells whether another page exists
+        List<Map<String, Object>> users = jdbcTemplate.query(
+            "SELECT id, fullname, email FROM users WHERE id > ? AND id <> ? ORDER BY id LIMIT ?",
+            (rs, rowNum) -> toRow(rs, idField), after, exclude, pageSize + 1);
+        boolean hasMore = users.size() > pageSize;
+        if (hasMore) {
+            users = new ArrayList<>(users.subList(0, pageSize));
+        }
+        
+        Map<String, Object> page = new HashMap<>();
+        page.put("users", users);
+        page.put("nextAfterId", users.isEmpty() ? after : users.get(users.size() - 1).get(idField));
+        page.put("hasMore", hasMore);
+        return page;
+    }
+    
+    /**
+     * Writes every user as a JSON array, or as {"status":"success","<arrayField>":[...]} when
+     * arrayField is set. Memory use does not depend on the number of users. The connection is
+     * held until the last row is written.
+     */
+    public void streamUsers(OutputStream out, Long excludeUserId, String idField, String arrayField) throws IOException {
+        long exclude = excludeUserId != null ? excludeUserId : -1;
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            if (arrayField != null) {
+                json.writeStartObject();
+                json.writeStringField("status", "success");
+                json.writeFieldName(arrayField);
+            }
+            json.writeStartArray();
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                    "SELECT id, fullname, email FROM users WHERE id <> ? ORDER BY id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(MYSQL_STREAMING_FETCH_SIZE);
+                statement.setLong(1, exclude);
+                return statement;
+            }, rs -> {
+                try {
+                    json.writeStartObject();
+                    json.writeNumberField(idField, rs.getLong(1));
+                    json.writeStringField("fullname", rs.getString(2));
+                    json.writeStringField("email", rs.getString(3));
+                    json.writeEndObject();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            json.writeEndArray();
+            if (arrayField != null) {
+                json.writeEndObject();
+            }
+        }
+    }
+    
+    private static Map<String, Object> toRow(ResultSet rs, String idField) throws SQLException {
+        Map<String, Object> row = new HashMap<>();
+        row.put(idField, rs.getLong(1));
+        row.put("fullname", rs.getString(2));
+        row.put("email", rs.getString(3));
+        return row;
+    }
+}
@@ -0,0 +1,316 @@
+package klu.com.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongToIntFunction;
+
+/**
+ * In-memory trigram index over user fullnames and emails.
+ * Every user gets a dense document number in the order they were added; posting lists hold
+ * document numbers in ascending order. Queries of three or more characters are substring
+ * matches (the intersection of the query's trigrams, then verified); shorter queries match
+ * word prefixes through grams padded with a start-of-word marker. Matches are ranked so that
+ * exact and prefix matches on the name come before substring and email matches.
+ */
+public class UserSearchIndex {
+    
+    // Pads the start of every word so one- and two-character prefixes are grams too
+    private static final char WORD_START = '\u0001';
+    
+    private static final int RANK_EXACT = 100;
+    private static final int RANK_NAME_PREFIX = 80;
+    private static final int RANK_WORD_PREFIX = 60;
+    private static final int RANK_NAME_CONTAINS = 40;
+    private static final int RANK_EMAIL_PREFIX = 30;
+    private static final int RANK_EMAIL_CONTAINS = 20;
+    
+    // Above every text rank, so a better tier always wins
+    private static final int RANK_TIER = 1000;
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private final Map<Long, IntList> postings = new HashMap<>();
+    
+    private long[] userIds = new long[1024];
+    private String[] fullnames = new String[1024];
+    private String[] emails = new String[1024];
+    
+    // Lowercased and trimmed once at add time, so ranking a candidate allocates nothing
+    private String[] normalizedNames = new String[1024];
+    private String[] normalizedEmails = new String[1024];
+    private int size;
+    
+    // userIds[0, sortedCount) is ascending; later documents were added out of id order
+    private int sortedCount;
+    
+    /**
+     * A search hit: the user's id, fullname and email as indexed
+     */
+    public static final class Match {
+        
+        private final long id;
+        private final String fullname;
+        private final String email;
+        
+        Match(long id, String fullname, String email) {
+            this.id = id;
+            this.fullname = fullname;
+            this.email = email;
+        }
+        
+        public long getId() {
+            return id;
+        }
+        
+        public String getFullname() {
+            return fullname;
+        }
+        
+        public String getEmail() {
+            return email;
+        }
+    }
+    
+    /**
+     * Index one user. A user id that is already indexed is ignored.
+     */
+    public void add(long userId, String fullname, String email) {
+        lock.writeLock().lock();
+        try {
+            if (contains(userId)) {
+                return;
+            }
+            if (size == userIds.length) {
+                int capacity = size * 2;
+                userIds = Arrays.copyOf(userIds, capacity);
+                fullnames = Arrays.copyOf(fullnames, capacity);
+                emails = Arrays.copyOf(emails, capacity);
+                normalizedNames = Arrays.copyOf(normalizedNames, capacity);
+                normalizedEmails = Arrays.copyOf(normalizedEmails, capacity);
+            }
+            int doc = size++;
+            userIds[doc] = userId;
+            fullnames[doc] = fullname;
+            emails[doc] = email;
+            normalizedNames[doc] = normalize(fullname);
+            normalizedEmails[doc] = normalize(email);
+            if (sortedCount == doc && (doc == 0 || userIds[doc - 1] < userId)) {
+                sortedCount++;
+            }
+            
+            Set<Long> grams = new HashSet<>();
+            addGrams(normalizedNames[doc], grams);
+            addGrams(normalizedEmails[doc], grams);
+            for (Long gram : grams) {
+                postings.computeIfAbsent(gram, g -> new IntList()).add(doc);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Best matches for the query, best first, skipping excludeUserId
+     */
+    public List<Match> search(String query, long excludeUserId, int limit) {
+        return search(query, excludeUserId, limit, userId -> 0);
+    }
+    
+    /**
+     * Best matches for the query, ordered by tier(userId) first (higher is better) and
+     * by how well the text matches within a tier
+     */
+    public List<Match> search(String query, long excludeUserId, int limit, LongToIntFunction tier) {
+        String q = normalize(query);
+        if (q.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        
+        lock.readLock().lock();
+        try {
+            List<Long> grams = new ArrayList<>();
+            if (q.length() >= 3) {
+                for (int i = 0; i + 3 <= q.length(); i++) {
+                    grams.add(gram(q.charAt(i), q.charAt(i + 1), q.charAt(i + 2)));
+                }
+            } else if (q.length() == 2) {
+                grams.add(gram(WORD_START, q.charAt(0), q.charAt(1)));
+            } else {
+                grams.add(gram(WORD_START, WORD_START, q.charAt(0)));
+            }
+            
+            List<IntList> lists = new ArrayList<>(grams.size());
+            for (Long gram : grams) {
+                IntList list = postings.get(gram);
+                if (list == null) {
+                    return new ArrayList<>();
+                }
+                lists.add(list);
+            }
+            lists.sort((a, b) -> Integer.compare(a.size, b.size));
+            
+            // Keep the best `limit` candidates; the head of the queue is the worst of them
+            PriorityQueue<long[]> best = new PriorityQueue<>(limit + 1, UserSearchIndex::compareRanked);
+            IntList shortest = lists.get(0);
+            for (int i = 0; i < shortest.size; i++) {
+                int doc = shortest.values[i];
+                if (userIds[doc] == excludeUserId || !inAll(lists, doc)) {
+                    continue;
+                }
+                int rank = rank(q, normalizedNames[doc], normalizedEmails[doc]);
+                if (rank == 0) {
+                    continue;
+                }
+                long score = (long) tier.applyAsInt(userIds[doc]) * RANK_TIER + rank;
+                long nameLength = fullnames[doc] == null ? 0 : fullnames[doc].length();
+                // Once the queue is full, most candidates lose to its worst entry: skip them without allocating
+                if (best.size() == limit && compareRanked(score, nameLength, userIds[doc], best.peek()) <= 0) {
+                    continue;
+                }
+                best.add(new long[] { score, nameLength, userIds[doc], doc });
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            
+            Match[] result = new Match[best.size()];
+            for (int i = result.length - 1; i >= 0; i--) {
+                int doc = (int) best.poll()[3];
+                result[i] = new Match(userIds[doc], fullnames[doc], emails[doc]);
+            }
+            return new ArrayList<>(Arrays.asList(result));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private boolean contains(long userId) {
+        if (Arrays.binarySearch(userIds, 0, sortedCount, userId) >= 0) {
+            return true;
+        }
+        for (int doc = sortedCount; doc < size; doc++) {
+            if (userIds[doc] == userId) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Worse candidates first: lower rank, then longer name, then higher user id
+    private static int compareRanked(long[] a, long[] b) {
+        return compareRanked(a[0], a[1], a[2], b);
+    }
+    
+    private static int compareRanked(long score, long nameLength, long userId, long[] b) {
+        if (score != b[0]) {
+            return Long.compare(score, b[0]);
+        }
+        if (nameLength != b[1]) {
+            return Long.compare(b[1], nameLength);
+        }
+        return Long.compare(b[2], userId);
+    }
+    
+    private static boolean inAll(List<IntList> lists, int doc) {
+        for (int i = 1; i < lists.size(); i++) {
+            if (Arrays.binarySearch(lists.get(i).values, 0, lists.get(i).size, doc) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // 0 when the grams matched but the text does not (trigrams in the wrong order)
+    private static int rank(String q, String name, String email) {
+        // Short queries only match word prefixes, as their grams do
+        boolean shortQuery = q.length() < 3;
+        if (name.equals(q)) {
+            return RANK_EXACT;
+        }
+        if (name.startsWith(q)) {
+            return RANK_NAME_PREFIX;
+        }
+        if (hasWordPrefix(name, q)) {
+            return RANK_WORD_PREFIX;
+        }
+        if (!shortQuery && name.contains(q)) {
+            return RANK_NAME_CONTAINS;
+        }
+        if (email.startsWith(q)) {
+            return RANK_EMAIL_PREFIX;
+        }
+        if (shortQuery ? hasWordPrefix(email, q) : email.contains(q)) {
+            return RANK_EMAIL_CONTAINS;
+        }
+        return 0;
+    }
+    
+    private static boolean hasWordPrefix(String text, String q) {
+        for (int at = text.indexOf(q); at >= 0; at = text.indexOf(q, at + 1)) {
+            if (isWordStart(text, at)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isWordStart(String text, int at) {
+        return at == 0 || !Character.isLetterOrDigit(text.charAt(at - 1));
+    }
+    
+    private static void addGrams(String text, Set<Long> grams) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isLetterOrDigit(text.charAt(i)) && isWordStart(text, i)) {
+                grams.add(gram(WORD_START, WORD_START, text.charAt(i)));
+                if (i + 1 < text.length()) {
+                    grams.add(gram(WORD_START, text.charAt(i), text.charAt(i + 1)));
+                }
+            }
+            if (i + 3 <= text.length()) {
+                grams.add(gram(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2)));
+            }
+        }
+    }
+    
+    private static long gram(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+    
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Growable int array of ascending document numbers
+     */
+    private static final class IntList {
+        
+        private int[] values = new int[4];
+        private int size;
+        
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package klu.com.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import klu.com.model.UserSummary;
+import klu.com.model.Users;
+import klu.com.repository.UsersRepository;
+
+/**
+ * User search by name or email.
+ * Served from an in-memory trigram index (see UserSearchIndex) that is built from the users
+ * table in the background at startup and fed by signup afterwards. Until the build finishes,
+ * searches fall back to the LIKE query on the table.
+ */
+@Service
+public class UserSearchService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UserSearchService.class);
+    
+    public static final int DEFAULT_LIMIT = 20;
+    
+    public static final int MAX_LIMIT = 100;
+    
+    @Value("${users.search.load-batch-size:10000}")
+    private int loadBatchSize;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private UsersRepository usersRepository;
+    
+    private final UserSearchIndex index = new UserSearchIndex();
+    
+    // Signups that arrived before the startup build completed; guarded by this
+    private List<Users> pendingLive = new ArrayList<>();
+    
+    private volatile boolean ready;
+    
+    /**
+     * Called by signup once the user is saved
+     */
+    public void indexUser(Users user) {
+        if (!ready) {
+            synchronized (this) {
+                if (pendingLive != null) {
+                    pendingLive.add(user);
+                    return;
+                }
+            }
+        }
+        index.add(user.getId(), user.getFullname(), user.getEmail());
+    }
+    
+    /**
+     * Users matching the query by name or email, best match first, without the caller.
+     * Each result has "id", "fullname" and "email".
+     */
+    public List<Map<String, Object>> search(String query, Long excludeUserId, Integer limit) {
+        return search(query, excludeUserId, limit, userId -> 0);
+    }
+    
+    /**
+     * Same as search, but users in a higher tier(userId) come first
+     */
+    public List<Map<String, Object>> search(String query, Long excludeUserId, Integer limit, LongToIntFunction tier) {
+        int pageSize = resolveLimit(limit);
+        long exclude = excludeUserId != null ? excludeUserId : -1;
+        List<Map<String, Object>> results = new ArrayList<>();
+        
+        if (ready) {
+            for (UserSearchIndex.Match match : index.search(query, exclude, pageSize, tier)) {
+                results.add(toResult(match.getId(), match.getFullname(), match.getEmail()));
+            }
+            return results;
+        }
+        
+        // Index still building: same LIKE query as before, ordered by tier only
+        List<UserSummary> users = usersRepository.searchSummaries(query);
+        users.sort(Comparator.comparingInt((UserSummary user) -> tier.applyAsInt(user.getId())).reversed());
+        for (UserSummary user : users) {
+            if (user.getId() != exclude && results.size() < pageSize) {
+                results.add(toResult(user.getId(), user.getFullname(), user.getEmail()));
+            }
+        }
+        return results;
+    }
+    
+    public boolean isReady() {
+        return ready;
+    }
+    
+    public static int resolveLimit(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread loader = new Thread(this::load, "user-search-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    private void load() {
+        long lastId = 0;
+        try {
+            while (true) {
+                List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                    "SELECT id, fullname, email FROM users WHERE id > ? ORDER BY id LIMIT ?",
+                    lastId, loadBatchSize);
+                for (Map<String, Object> row : rows) {
+                    lastId = ((Number) row.get("id")).longValue();
+                    index.add(lastId, (String) row.get("fullname"), (String) row.get("email"));
+                }
+                if (rows.size() < loadBatchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            logger.error("User search index build stopped at user {}; searches keep using the table", lastId, e);
+            synchronized (this) {
+                pendingLive = null;
+            }
+            return;
+        }
+        
+        // Signups already read from the table are skipped by the index
+        synchronized (this) {
+            for (Users user : pendingLive) {
+                index.add(user.getId(), user.getFullname(), user.getEmail());
+            }
+            pendingLive = null;
+            ready = true;
+        }
+        logger.info("User search index ready with {} users", index.size());
+    }
+    
+    private static Map<String, Object> toResult(long id, String fullname, String email) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", id);
+        result.put("fullname", fullname);
+        result.put("email", email);
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package klu.com.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Snowflake-style, time-ordered ids for chat messages, assigned in-process.
+ * Layout (53 bits, so ids stay exact as JavaScript numbers on the frontend):
+ * 41 bits milliseconds since EPOCH | 5 bits node id | 7 bits sequence.
+ * Ids from one node are strictly increasing; ids from different nodes are ordered by
+ * millisecond. When the sequence of a millisecond runs out, or the clock steps back,
+ * the generator keeps counting on a logical clock slightly ahead of the wall clock.
+ */
+@Component
+public class MessageIdGenerator {
+    
+    // 2024-01-01T00:00:00Z
+    public static final long EPOCH = 1704067200000L;
+    
+    public static final int NODE_BITS = 5;
+    public static final int SEQUENCE_BITS = 7;
+    public static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    
+    private final long nodeId;
+    
+    // (milliseconds since EPOCH << SEQUENCE_BITS) | sequence of the last issued id
+    private final AtomicLong lastState = new AtomicLong();
+    
+    public MessageIdGenerator(@Value("${chat.id.node-id:0}") long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("chat.id.node-id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+    
+    public long nextId() {
+        long state;
+        long last;
+        do {
+            last = lastState.get();
+            long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+            // last + 1 moves to the next millisecond once the sequence is exhausted
+            state = Math.max(last + 1, now);
+        } while (!lastState.compareAndSet(last, state));
+        
+        long millis = state >>> SEQUENCE_BITS;
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (state & SEQUENCE_MASK);
+    }
+    
+    /**
+     * Creation time of an id in epoch milliseconds
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+    
+    /**
+     * Smallest id any node can issue at the given epoch milliseconds, for time-based range scans
+     */
+    public static long firstIdAt(long epochMillis) {
+        return (epochMillis - EPOCH) << (NODE_BITS + SEQUENCE_BITS);
+    }
+}
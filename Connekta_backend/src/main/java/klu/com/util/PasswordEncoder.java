@@ -1,37 +1,193 @@
 package klu.com.util;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Component;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * BCrypt hashing on a small dedicated pool, so a burst of sign-ins cannot take every core
+ * away from chat and feed requests. When the pool's queue is full, callers are rejected
+ * immediately with HashingBusyException instead of piling up.
+ */
 @Component
 public class PasswordEncoder {
     
-    private final BCryptPasswordEncoder bcryptEncoder;
+    // The strength parameter determines the complexity of new hashes.
+    // Higher values are more secure but slower; existing hashes keep verifying at their own cost
+    @Value("${auth.bcrypt.strength:12}")
+    private int strength;
+    
+    // 0 means half of the available cores
+    @Value("${auth.hashing.threads:0}")
+    private int threads;
+    
+    @Value("${auth.hashing.queue-size:64}")
+    private int queueSize;
+    
+    @Value("${auth.hashing.timeout-ms:10000}")
+    private long timeoutMs;
+    
+    private BCryptPasswordEncoder bcryptEncoder;
+    
+    private ThreadPoolExecutor executor;
+    
+    private final LongAdder hashes = new LongAdder();
+    
+    private final LongAdder hashNanos = new LongAdder();
     
-    public PasswordEncoder() {
-        // The strength parameter (12) determines the complexity of the hash
-        // Higher values are more secure but slower
-        this.bcryptEncoder = new BCryptPasswordEncoder(12);
+    private final LongAdder rejected = new LongAdder();
+    
+    private volatile long maxHashNanos;
+    
+    @PostConstruct
+    public void start() {
+        this.bcryptEncoder = new BCryptPasswordEncoder(strength);
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize), runnable -> {
+                Thread thread = new Thread(runnable, "password-hashing-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
     }
     
     /**
      * Encrypts a password using BCrypt algorithm
-     * 
+     *
      * @param rawPassword The plain text password to encrypt
      * @return The encrypted password hash
+     * @throws HashingBusyException if the hashing pool is saturated
      */
     public String encode(String rawPassword) {
-        return bcryptEncoder.encode(rawPassword);
+        return await(encodeAsync(rawPassword));
+    }
+    
+    /**
+     * Encrypts a password on the hashing pool without waiting for it
+     *
+     * @throws HashingBusyException if the hashing pool is saturated
+     */
+    public CompletableFuture<String> encodeAsync(String rawPassword) {
+        return submit(() -> bcryptEncoder.encode(rawPassword));
     }
     
     /**
      * Verifies if a raw password matches an encrypted password
-     * 
+     *
      * @param rawPassword The plain text password to check
      * @param encodedPassword The encrypted password to compare with
      * @return true if the passwords match, false otherwise
+     * @throws HashingBusyException if the hashing pool is saturated
      */
     public boolean matches(String rawPassword, String encodedPassword) {
-        return bcryptEncoder.matches(rawPassword, encodedPassword);
+        return await(submit(() -> bcryptEncoder.matches(rawPassword, encodedPassword)));
+    }
+    
+    /**
+     * Whether a stored hash was made with a different cost than the configured strength,
+     * so it should be replaced after the next successful login
+     */
+    public boolean needsRehash(String encodedPassword) {
+        // BCrypt hashes look like $2a$12$..., where 12 is the cost
+        if (encodedPassword == null || encodedPassword.length() < 7 || encodedPassword.charAt(0) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(encodedPassword.substring(4, 6)) != strength;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Hash count, average and max hash time, rejections and current pool load
+     */
+    public Map<String, Object> getStats() {
+        long count = hashes.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("strength", strength);
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("queueSize", queueSize);
+        stats.put("hashes", count);
+        stats.put("rejected", rejected.sum());
+        stats.put("avgHashMs", count == 0 ? 0.0 : hashNanos.sum() / 1_000_000.0 / count);
+        stats.put("maxHashMs", maxHashNanos / 1_000_000.0);
+        return stats;
+    }
+    
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    return task.get();
+                } finally {
+                    record(System.nanoTime() - start);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new HashingBusyException();
+        }
+    }
+    
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            rejected.increment();
+            throw new HashingBusyException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HashingBusyException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+    
+    private void record(long nanos) {
+        hashes.increment();
+        hashNanos.add(nanos);
+        if (nanos > maxHashNanos) {
+            maxHashNanos = nanos;
+        }
+    }
+    
+    /**
+     * Thrown when the hashing pool is saturated; callers should ask the client to retry
+     */
+    public static class HashingBusyException extends RuntimeException {
+        
+        public HashingBusyException() {
+            super("Password hashing is busy, please try again");
+        }
     }
 }
@@ -0,0 +1,5 @@
+-- Client-generated idempotency key for sends. NULL for messages sent without one;
+-- the unique index ignores NULLs, so only keyed sends are deduplicated.
+ALTER TABLE chat_messages ADD COLUMN client_message_key VARCHAR(64) NULL, ALGORITHM=INSTANT;
+
+ALTER TABLE chat_messages ADD UNIQUE INDEX uk_chat_messages_client_key (sender_id, client_message_key), ALGORITHM=INPLACE, LOCK=NONE;
@@ -0,0 +1,9 @@
+-- Revoked JWTs by token id (jti). Rows are only needed until the token would have expired anyway.
+-- Every node polls by revoked_at to keep its in-memory deny list current.
+CREATE TABLE revoked_tokens (
+    jti VARCHAR(36) NOT NULL PRIMARY KEY,
+    expires_at DATETIME(3) NOT NULL,
+    revoked_at DATETIME(3) NOT NULL,
+    INDEX idx_revoked_tokens_revoked_at (revoked_at),
+    INDEX idx_revoked_tokens_expires_at (expires_at)
+);
@@ -0,0 +1,9 @@
+-- Baseline: chat_messages as previously created by Hibernate from ChatMessage
+CREATE TABLE IF NOT EXISTS chat_messages (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    message_text VARCHAR(255) NOT NULL,
+    read_status INT NOT NULL,
+    receiver_id BIGINT NOT NULL,
+    sender_id BIGINT NOT NULL,
+    timestamp DATETIME(6) NOT NULL
+);
@@ -0,0 +1,32 @@
+-- Per-user inbox: one row per (user, counterpart) holding the latest message and the unread count.
+-- Maintained incrementally by ChatInboxService on send and read.
+CREATE TABLE IF NOT EXISTS chat_conversations (
+    user_id BIGINT NOT NULL,
+    other_user_id BIGINT NOT NULL,
+    last_message_id BIGINT NOT NULL,
+    last_message_text VARCHAR(255) NOT NULL,
+    last_message_sender_id BIGINT NOT NULL,
+    last_message_at DATETIME(6) NOT NULL,
+    unread_count INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (user_id, other_user_id),
+    KEY idx_chat_conversations_recent (user_id, last_message_id)
+);
+
+-- Backfill from the existing history
+INSERT INTO chat_conversations
+    (user_id, other_user_id, last_message_id, last_message_text, last_message_sender_id, last_message_at, unread_count)
+SELECT c.user_id, c.other_user_id, m.id, m.message_text, m.sender_id, m.timestamp,
+       (SELECT COUNT(*) FROM chat_messages u
+        WHERE u.sender_id = c.other_user_id AND u.receiver_id = c.user_id AND u.read_status = 0)
+FROM (
+    SELECT p.user_id, p.other_user_id, MAX(p.last_id) AS last_id
+    FROM (
+        SELECT sender_id AS user_id, receiver_id AS other_user_id, MAX(id) AS last_id
+        FROM chat_messages GROUP BY sender_id, receiver_id
+        UNION ALL
+        SELECT receiver_id AS user_id, sender_id AS other_user_id, MAX(id) AS last_id
+        FROM chat_messages GROUP BY receiver_id, sender_id
+    ) p
+    GROUP BY p.user_id, p.other_user_id
+) c
+JOIN chat_messages m ON m.id = c.last_id;
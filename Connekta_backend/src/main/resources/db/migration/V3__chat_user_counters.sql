@@ -0,0 +1,21 @@
+-- Per-user chat counters behind getChatStatistics, maintained by ChatCounterService
+CREATE TABLE IF NOT EXISTS chat_user_counters (
+    user_id BIGINT NOT NULL PRIMARY KEY,
+    messages_sent BIGINT NOT NULL DEFAULT 0,
+    messages_received BIGINT NOT NULL DEFAULT 0,
+    unread_messages BIGINT NOT NULL DEFAULT 0,
+    conversations_count BIGINT NOT NULL DEFAULT 0
+);
+
+-- Lets the reconciliation job count one user's messages with an index range scan
+CREATE INDEX idx_chat_messages_sender ON chat_messages (sender_id, id);
+CREATE INDEX idx_chat_messages_receiver ON chat_messages (receiver_id, id);
+
+INSERT INTO chat_user_counters (user_id, messages_sent, messages_received, unread_messages, conversations_count)
+SELECT c.user_id,
+       (SELECT COUNT(*) FROM chat_messages m WHERE m.sender_id = c.user_id),
+       (SELECT COUNT(*) FROM chat_messages m WHERE m.receiver_id = c.user_id),
+       SUM(c.unread_count),
+       COUNT(*)
+FROM chat_conversations c
+GROUP BY c.user_id;
@@ -0,0 +1,3 @@
+-- Canonical conversation key, see ChatMessage.conversationKey().
+-- Added as an instant metadata change; V5 backfills it in small chunks and V6 indexes it.
+ALTER TABLE chat_messages ADD COLUMN conversation_key BIGINT NULL, ALGORITHM=INSTANT;
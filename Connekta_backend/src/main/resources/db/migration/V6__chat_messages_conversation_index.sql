@@ -0,0 +1,2 @@
+-- Every conversation read becomes a single range scan on (conversation_key, id)
+ALTER TABLE chat_messages ADD INDEX idx_chat_messages_conversation (conversation_key, id), ALGORITHM=INPLACE, LOCK=NONE;
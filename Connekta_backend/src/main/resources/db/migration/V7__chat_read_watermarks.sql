@@ -0,0 +1,24 @@
+-- Read state as a per-(reader, counterpart) watermark: every message from the counterpart
+-- with id <= last_read_message_id is read. Marking a conversation read is a one-row update.
+ALTER TABLE chat_conversations ADD COLUMN last_read_message_id BIGINT NOT NULL DEFAULT 0, ALGORITHM=INSTANT;
+
+-- Watermark just below the oldest unread message, or at the latest message when all are read
+UPDATE chat_conversations c
+SET c.last_read_message_id = COALESCE(
+    (SELECT MIN(m.id) - 1 FROM chat_messages m
+     WHERE m.conversation_key = (LEAST(c.user_id, c.other_user_id) << 32) | GREATEST(c.user_id, c.other_user_id)
+       AND m.sender_id = c.other_user_id AND m.read_status = 0),
+    c.last_message_id);
+
+UPDATE chat_conversations c
+SET c.unread_count =
+    (SELECT COUNT(*) FROM chat_messages m
+     WHERE m.conversation_key = (LEAST(c.user_id, c.other_user_id) << 32) | GREATEST(c.user_id, c.other_user_id)
+       AND m.sender_id = c.other_user_id AND m.id > c.last_read_message_id);
+
+-- chat_messages.read_status is no longer written; this view derives it from the receiver's watermark
+CREATE OR REPLACE VIEW chat_messages_with_read_status AS
+SELECT m.id, m.message_text, m.sender_id, m.receiver_id, m.conversation_key, m.timestamp,
+       IF(m.id <= COALESCE(c.last_read_message_id, 0), 1, 0) AS read_status
+FROM chat_messages m
+LEFT JOIN chat_conversations c ON c.user_id = m.receiver_id AND c.other_user_id = m.sender_id;
@@ -0,0 +1,15 @@
+-- Bookkeeping for ChatArchiveService, which moves old messages into compressed segment files.
+-- Every message with id <= archived_up_to lives in the archive, not in chat_messages.
+CREATE TABLE IF NOT EXISTS chat_archive_state (
+    id INT NOT NULL PRIMARY KEY,
+    archived_up_to BIGINT NOT NULL
+);
+
+INSERT IGNORE INTO chat_archive_state (id, archived_up_to) VALUES (1, 0);
+
+-- Per-user totals of archived messages, so counter reconciliation still sees the full history
+CREATE TABLE IF NOT EXISTS chat_archive_user_totals (
+    user_id BIGINT NOT NULL PRIMARY KEY,
+    messages_sent BIGINT NOT NULL DEFAULT 0,
+    messages_received BIGINT NOT NULL DEFAULT 0
+);
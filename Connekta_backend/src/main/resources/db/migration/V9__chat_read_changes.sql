@@ -0,0 +1,6 @@
+-- When a read watermark last moved, so a delta sync can return only the read-state changes
+-- since its cursor. NULL until the reader first marks the conversation read.
+ALTER TABLE chat_conversations ADD COLUMN last_read_at DATETIME(3) NULL, ALGORITHM=INSTANT;
+
+-- The counterpart side of a sync (who read my messages) looks rows up by other_user_id
+ALTER TABLE chat_conversations ADD INDEX idx_chat_conversations_read_changes (other_user_id, last_read_at), ALGORITHM=INPLACE, LOCK=NONE;
@@ -0,0 +1,146 @@
+package klu.com.benchmark;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+
+import klu.com.model.ChatMessage;
+import klu.com.service.ChatMessageRowMapper;
+
+/**
+ * Allocation per history page (50 rows) of the old and the consolidated chat read path.
+ * Rows come from an in-memory CachedRowSet, so only the mapping is measured, not the driver.
+ *
+ * - columnMapRows: before, /api/messages (JdbcTemplate.queryForList, one LinkedCaseInsensitiveMap per row)
+ * - typedRows: after, ChatMessageService.getMessages (ChatMessageRowMapper), as served by /api/chat/messages
+ * - typedRowsAsApiMaps: after, /api/messages (typed rows reshaped by the ChatMessageController adapter)
+ *
+ * The old /api/chat/messages path (Hibernate entity hydration plus persistence-context
+ * bookkeeping) needs a database and is not covered here.
+ *
+ * Run with (JMH forks, so the classpath has to be passed explicitly):
+ * mvn test-compile org.codehaus.mojo:exec-maven-plugin:3.1.0:exec -Dexec.classpathScope=test
+ *     -Dexec.executable=java "-Dexec.args=-cp %classpath klu.com.benchmark.ChatRowMappingBenchmark"
+ * and compare gc.alloc.rate.norm (bytes per page).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatRowMappingBenchmark {
+    
+    private static final int PAGE_SIZE = 50;
+    
+    private CachedRowSet rows;
+    
+    private final ColumnMapRowMapper columnMapRowMapper = new ColumnMapRowMapper();
+    
+    @Setup
+    public void setUp() throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        String[] names = ChatMessageRowMapper.COLUMNS.split(", ");
+        int[] types = { Types.BIGINT, Types.VARCHAR, Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.INTEGER, Types.TIMESTAMP };
+        metaData.setColumnCount(names.length);
+        for (int i = 0; i < names.length; i++) {
+            metaData.setColumnName(i + 1, names[i]);
+            metaData.setColumnLabel(i + 1, names[i]);
+            metaData.setColumnType(i + 1, types[i]);
+        }
+        
+        rows = RowSetProvider.newFactory().createCachedRowSet();
+        rows.setMetaData(metaData);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            rows.moveToInsertRow();
+            rows.updateLong(1, 1_000_000L + i);
+            rows.updateString(2, "message number " + i + " with some ordinary chat text");
+            rows.updateLong(3, i % 2 == 0 ? 17L : 42L);
+            rows.updateLong(4, i % 2 == 0 ? 42L : 17L);
+            rows.updateLong(5, ChatMessage.conversationKey(17L, 42L));
+            rows.updateInt(6, i < 40 ? 1 : 0);
+            rows.updateTimestamp(7, new Timestamp(now - i * 1000L));
+            rows.insertRow();
+        }
+        rows.moveToCurrentRow();
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> columnMapRows() throws SQLException {
+        List<Map<String, Object>> result = new ArrayList<>();
+        ResultSet rs = rewind();
+        int rowNum = 0;
+        while (rs.next()) {
+            result.add(columnMapRowMapper.mapRow(rs, rowNum++));
+        }
+        return result;
+    }
+    
+    @Benchmark
+    public List<ChatMessage> typedRows() throws SQLException {
+        List<ChatMessage> result = new ArrayList<>(PAGE_SIZE);
+        ResultSet rs = rewind();
+        int rowNum = 0;
+        while (rs.next()) {
+            result.add(ChatMessageRowMapper.INSTANCE.mapRow(rs, rowNum++));
+        }
+        return result;
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> typedRowsAsApiMaps() throws SQLException {
+        List<ChatMessage> messages = typedRows();
+        List<Map<String, Object>> result = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            // Same shape as ChatMessageController.toRow
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", message.getId());
+            row.put("message_text", message.getMessageText());
+            row.put("sender_id", message.getSenderId());
+            row.put("receiver_id", message.getReceiverId());
+            row.put("conversation_key", message.getConversationKey());
+            row.put("timestamp", new Timestamp(message.getTimestamp().getTime()).toLocalDateTime());
+            row.put("read_status", message.getReadStatus());
+            result.add(row);
+        }
+        return result;
+    }
+    
+    private ResultSet rewind() throws SQLException {
+        rows.beforeFirst();
+        return rows;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(ChatRowMappingBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
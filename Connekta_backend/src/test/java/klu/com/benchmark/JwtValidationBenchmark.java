@@ -0,0 +1,96 @@
+package klu.com.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import klu.com.model.JWTManager;
+import klu.com.service.TokenRevocationService;
+
+/**
+ * Per-request cost of turning a bearer token into an email.
+ *
+ * - freshParser: before, JWTManager.validateToken building a parser and verifying the HMAC on every call
+ * - sharedParser: one reused parser, still verifying the HMAC on every call
+ * - cachedToken: after, JWTManager.validateToken answering an already verified token from its cache
+ *   (including the in-memory revocation check)
+ *
+ * Run with (JMH forks, so the classpath has to be passed explicitly):
+ * mvn test-compile org.codehaus.mojo:exec-maven-plugin:3.1.0:exec -Dexec.classpathScope=test
+ *     -Dexec.executable=java "-Dexec.args=-cp %classpath klu.com.benchmark.JwtValidationBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtValidationBenchmark {
+    
+    private JWTManager jwtManager;
+    
+    private JwtParser sharedParser;
+    
+    private String token;
+    
+    @Setup
+    public void setUp() {
+        jwtManager = new JWTManager();
+        ReflectionTestUtils.setField(jwtManager, "tokenRevocationService", new TokenRevocationService());
+        sharedParser = Jwts.parserBuilder().setSigningKey(jwtManager.key).build();
+        token = jwtManager.generateToken("someone@example.com");
+        jwtManager.validateToken(token);
+    }
+    
+    @Benchmark
+    public String freshParser() {
+        Claims claims = Jwts.parserBuilder()
+            .setSigningKey(jwtManager.key)
+            .build()
+            .parseClaimsJws(token)
+            .getBody();
+        return emailOf(claims);
+    }
+    
+    @Benchmark
+    public String sharedParser() {
+        return emailOf(sharedParser.parseClaimsJws(token).getBody());
+    }
+    
+    @Benchmark
+    public String cachedToken() {
+        return jwtManager.validateToken(token);
+    }
+    
+    private static String emailOf(Claims claims) {
+        Date expiry = claims.getExpiration();
+        if (expiry == null || expiry.before(new Date())) {
+            return "401";
+        }
+        return claims.get("email", String.class);
+    }
+    
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(JwtValidationBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
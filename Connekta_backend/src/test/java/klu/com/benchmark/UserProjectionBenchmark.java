@@ -0,0 +1,338 @@
+package klu.com.benchmark;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import klu.com.model.FriendRequestSummary;
+import klu.com.model.Friends;
+import klu.com.model.UserSummary;
+import klu.com.model.Users;
+
+/**
+ * Allocation per response (200 rows) of the friends read paths, before and after the projections.
+ * Rows come from an in-memory CachedRowSet holding the columns each query selects, so only
+ * reading the rows and shaping the response is measured, not the driver.
+ *
+ * - friendsEntities: before, /api/friends/list (Users entities, password hash included, copied into maps)
+ * - friendsProjection: after, /api/friends/list (UsersRepository.findSummariesByIdIn)
+ * - requestsEntities: before, /api/friends/pending and /sent (Friends entities with both Users eagerly joined)
+ * - requestsProjection: after, /api/friends/pending and /sent (FriendRequestSummary from one join)
+ * - searchEntities: before, the user search fallback while the index builds (LIKE query returning Users)
+ * - searchProjection: after, the same fallback through UsersRepository.searchSummaries
+ * - suggestionsEntities: before, /api/friends/suggestions (findAllFriends for each of SUGGESTION_FRIENDS
+ *   friends, deduplicated by an id map standing in for the persistence context)
+ * - suggestionsProjection: after, /api/friends/suggestions (summaries of the suggested ids, read once)
+ *
+ * This is a partial, lower-bound measurement of what the projections save. Entities are filled
+ * by hand, so Hibernate's hydration, loaded-state snapshots and persistence-context entries are
+ * not counted, nor are the driver's string decoding or the round trips saved (which need a
+ * database). /users/all is not here: it already streamed rows without entities before the change.
+ *
+ * Run with (JMH forks, so the classpath has to be passed explicitly):
+ * mvn test-compile org.codehaus.mojo:exec-maven-plugin:3.1.0:exec -Dexec.classpathScope=test
+ *     -Dexec.executable=java "-Dexec.args=-cp %classpath klu.com.benchmark.UserProjectionBenchmark"
+ * and compare gc.alloc.rate.norm (bytes per response).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserProjectionBenchmark {
+    
+    private static final int ROWS = 200;
+    
+    // Friends whose friend lists the old suggestions path loaded, each returning the same ROWS users
+    private static final int SUGGESTION_FRIENDS = 10;
+    
+    private static final String PASSWORD_HASH = "$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquzi.Ss7KIUgO2t0jWMUW";
+    
+    private CachedRowSet userEntityRows;
+    
+    private CachedRowSet userSummaryRows;
+    
+    private CachedRowSet requestEntityRows;
+    
+    private CachedRowSet requestSummaryRows;
+    
+    @Setup
+    public void setUp() throws SQLException {
+        long now = System.currentTimeMillis();
+        
+        userEntityRows = rowSet(new int[] { Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR });
+        userSummaryRows = rowSet(new int[] { Types.BIGINT, Types.VARCHAR, Types.VARCHAR });
+        for (int i = 0; i < ROWS; i++) {
+            userEntityRows.moveToInsertRow();
+            insertUser(userEntityRows, 1, 1000L + i, true);
+            userEntityRows.insertRow();
+            userSummaryRows.moveToInsertRow();
+            insertUser(userSummaryRows, 1, 1000L + i, false);
+            userSummaryRows.insertRow();
+        }
+        userEntityRows.moveToCurrentRow();
+        userSummaryRows.moveToCurrentRow();
+        
+        // Friends columns (id, sender_id, receiver_id, status, created_at, updated_at), then both users
+        requestEntityRows = rowSet(new int[] { Types.BIGINT, Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.TIMESTAMP, Types.TIMESTAMP,
+            Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR });
+        // f.id, s.id, s.fullname, s.email, f.created_at
+        requestSummaryRows = rowSet(new int[] { Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP });
+        for (int i = 0; i < ROWS; i++) {
+            requestEntityRows.moveToInsertRow();
+            requestEntityRows.updateLong(1, 50_000L + i);
+            requestEntityRows.updateLong(2, 1000L + i);
+            requestEntityRows.updateLong(3, 17L);
+            requestEntityRows.updateString(4, "pending");
+            requestEntityRows.updateTimestamp(5, new Timestamp(now - i * 60_000L));
+            requestEntityRows.updateTimestamp(6, new Timestamp(now - i * 60_000L));
+            insertUser(requestEntityRows, 7, 1000L + i, true);
+            insertUser(requestEntityRows, 11, 17L, true);
+            requestEntityRows.insertRow();
+            
+            requestSummaryRows.moveToInsertRow();
+            requestSummaryRows.updateLong(1, 50_000L + i);
+            insertUser(requestSummaryRows, 2, 1000L + i, false);
+            requestSummaryRows.updateTimestamp(5, new Timestamp(now - i * 60_000L));
+            requestSummaryRows.insertRow();
+        }
+        requestEntityRows.moveToCurrentRow();
+        requestSummaryRows.moveToCurrentRow();
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> friendsEntities() throws SQLException {
+        List<Users> friends = new ArrayList<>();
+        ResultSet rs = rewind(userEntityRows);
+        while (rs.next()) {
+            friends.add(user(rs, 1));
+        }
+        // Same shape as the old FriendsManager.getFriends
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Users friend : friends) {
+            Map<String, Object> friendData = new HashMap<>();
+            friendData.put("id", friend.getId());
+            friendData.put("fullname", friend.getFullname());
+            friendData.put("email", friend.getEmail());
+            result.add(friendData);
+        }
+        return result;
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> friendsProjection() throws SQLException {
+        List<UserSummary> friends = new ArrayList<>();
+        ResultSet rs = rewind(userSummaryRows);
+        while (rs.next()) {
+            friends.add(new UserSummary(rs.getLong(1), rs.getString(2), rs.getString(3)));
+        }
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (UserSummary friend : friends) {
+            result.add(friend.toMap());
+        }
+        return result;
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> requestsEntities() throws SQLException {
+        List<Friends> requests = new ArrayList<>();
+        ResultSet rs = rewind(requestEntityRows);
+        while (rs.next()) {
+            Friends request = new Friends(user(rs, 7), user(rs, 11), rs.getString(4));
+            request.setId(rs.getLong(1));
+            request.setCreatedAt(rs.getTimestamp(5).toLocalDateTime());
+            request.setUpdatedAt(rs.getTimestamp(6).toLocalDateTime());
+            requests.add(request);
+        }
+        // Same shape as the old FriendsManager.getPendingRequests
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Friends request : requests) {
+            Map<String, Object> requestData = new HashMap<>();
+            requestData.put("id", request.getId());
+            requestData.put("sender", Map.of(
+                "id", request.getSender().getId(),
+                "fullname", request.getSender().getFullname(),
+                "email", request.getSender().getEmail()
+            ));
+            requestData.put("createdAt", request.getCreatedAt().toString());
+            result.add(requestData);
+        }
+        return result;
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> requestsProjection() throws SQLException {
+        List<FriendRequestSummary> requests = new ArrayList<>();
+        ResultSet rs = rewind(requestSummaryRows);
+        while (rs.next()) {
+            requests.add(new FriendRequestSummary(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getString(4),
+                rs.getTimestamp(5).toLocalDateTime()));
+        }
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (FriendRequestSummary request : requests) {
+            Map<String, Object> requestData = new HashMap<>();
+            requestData.put("id", request.getId());
+            requestData.put("sender", Map.of(
+                "id", request.getUser().getId(),
+                "fullname", request.getUser().getFullname(),
+                "email", request.getUser().getEmail()
+            ));
+            requestData.put("createdAt", request.getCreatedAt().toString());
+            result.add(requestData);
+        }
+        return result;
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> searchEntities() throws SQLException {
+        List<Users> users = new ArrayList<>();
+        ResultSet rs = rewind(userEntityRows);
+        while (rs.next()) {
+            users.add(user(rs, 1));
+        }
+        // Same shape as UserSearchService.toResult
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Users user : users) {
+            results.add(searchResult(user.getId(), user.getFullname(), user.getEmail()));
+        }
+        return results;
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> searchProjection() throws SQLException {
+        List<UserSummary> users = new ArrayList<>();
+        ResultSet rs = rewind(userSummaryRows);
+        while (rs.next()) {
+            users.add(new UserSummary(rs.getLong(1), rs.getString(2), rs.getString(3)));
+        }
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (UserSummary user : users) {
+            results.add(searchResult(user.getId(), user.getFullname(), user.getEmail()));
+        }
+        return results;
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> suggestionsEntities() throws SQLException {
+        // One entity per id, as the persistence context hands back for repeated rows
+        Map<Long, Users> managed = new HashMap<>();
+        Set<Users> suggestions = new HashSet<>();
+        for (int friend = 0; friend < SUGGESTION_FRIENDS; friend++) {
+            ResultSet rs = rewind(userEntityRows);
+            while (rs.next()) {
+                long id = rs.getLong(1);
+                Users user = managed.get(id);
+                if (user == null) {
+                    user = user(rs, 1);
+                    managed.put(id, user);
+                }
+                suggestions.add(user);
+            }
+        }
+        // Same shape as the old FriendsManager.getFriendSuggestions, without the random avatar
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Users user : suggestions) {
+            Map<String, Object> userData = new HashMap<>();
+            userData.put("id", user.getId());
+            userData.put("fullname", user.getFullname());
+            userData.put("email", user.getEmail());
+            userData.put("requestSent", false);
+            result.add(userData);
+        }
+        return result;
+    }
+    
+    @Benchmark
+    public List<Map<String, Object>> suggestionsProjection() throws SQLException {
+        Map<Long, UserSummary> summaries = new HashMap<>();
+        ResultSet rs = rewind(userSummaryRows);
+        while (rs.next()) {
+            summaries.put(rs.getLong(1), new UserSummary(rs.getLong(1), rs.getString(2), rs.getString(3)));
+        }
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (UserSummary user : summaries.values()) {
+            Map<String, Object> userData = user.toMap();
+            userData.put("mutualFriends", SUGGESTION_FRIENDS);
+            userData.put("requestSent", false);
+            result.add(userData);
+        }
+        return result;
+    }
+    
+    private static Map<String, Object> searchResult(long id, String fullname, String email) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", id);
+        result.put("fullname", fullname);
+        result.put("email", email);
+        return result;
+    }
+    
+    private static Users user(ResultSet rs, int column) throws SQLException {
+        Users user = new Users();
+        user.setId(rs.getLong(column));
+        user.setFullname(rs.getString(column + 1));
+        user.setEmail(rs.getString(column + 2));
+        user.setPassword(rs.getString(column + 3));
+        return user;
+    }
+    
+    private static void insertUser(CachedRowSet rows, int column, long id, boolean withPassword) throws SQLException {
+        rows.updateLong(column, id);
+        rows.updateString(column + 1, "User Number " + id);
+        rows.updateString(column + 2, "user" + id + "@example.com");
+        if (withPassword) {
+            rows.updateString(column + 3, PASSWORD_HASH);
+        }
+    }
+    
+    private static CachedRowSet rowSet(int[] types) throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(types.length);
+        for (int i = 0; i < types.length; i++) {
+            metaData.setColumnName(i + 1, "c" + (i + 1));
+            metaData.setColumnType(i + 1, types[i]);
+        }
+        CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+        rows.setMetaData(metaData);
+        return rows;
+    }
+    
+    private static ResultSet rewind(CachedRowSet rows) throws SQLException {
+        rows.beforeFirst();
+        return rows;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(UserProjectionBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
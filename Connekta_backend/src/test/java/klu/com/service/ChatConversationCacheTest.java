@@ -0,0 +1,70 @@
+package klu.com.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import klu.com.model.ChatMessage;
+
+class ChatConversationCacheTest {
+    
+    private static final long KEY = ChatMessage.conversationKey(1L, 2L);
+    
+    private ChatConversationCache cache(int capacity, long maxBytes) {
+        ChatConversationCache cache = new ChatConversationCache();
+        ReflectionTestUtils.setField(cache, "capacity", capacity);
+        ReflectionTestUtils.setField(cache, "maxBytes", maxBytes);
+        return cache;
+    }
+    
+    private static ChatMessage message(long id, long key) {
+        return new ChatMessage(id, "text " + id, 1L, 2L, key, 0, new Date());
+    }
+    
+    private static List<Long> ids(List<ChatMessage> messages) {
+        List<Long> ids = new ArrayList<>();
+        messages.forEach(m -> ids.add(m.getId()));
+        return ids;
+    }
+    
+    @Test
+    void ringKeepsTheNewestMessagesAndAnswersOnlyCompletePages() {
+        ChatConversationCache cache = cache(3, Long.MAX_VALUE);
+        cache.load(KEY, List.of(message(20, KEY), message(10, KEY)), true, Map.of(2L, 10L), cache.getReadStamp());
+        cache.add(message(30, KEY));
+        
+        List<ChatMessage> page = cache.getBefore(KEY, null, 3);
+        assertEquals(List.of(30L, 20L, 10L), ids(page));
+        assertEquals(List.of(0, 0, 1), List.of(page.get(0).getReadStatus(), page.get(1).getReadStatus(), page.get(2).getReadStatus()));
+        
+        // Overflow drops message 10: older pages can no longer be answered
+        cache.add(message(40, KEY));
+        assertEquals(List.of(40L, 30L), ids(cache.getBefore(KEY, null, 2)));
+        assertNull(cache.getBefore(KEY, 30L, 2));
+        assertEquals(List.of(30L, 40L), ids(cache.getAfter(KEY, 20L, 5)));
+        assertNull(cache.getAfter(KEY, 10L, 5));
+    }
+    
+    @Test
+    void staleWatermarksAreNotCachedAndLruConversationsAreEvicted() {
+        ChatConversationCache cache = cache(4, 1000);
+        long stamp = cache.getReadStamp();
+        cache.invalidateReadState(KEY);
+        cache.load(KEY, List.of(message(1, KEY)), true, Map.of(), stamp);
+        assertNull(cache.getBefore(KEY, null, 1));
+        
+        long otherKey = ChatMessage.conversationKey(1L, 3L);
+        for (long id = 2; id < 6; id++) {
+            cache.add(message(id, otherKey));
+        }
+        assertEquals(1, cache.getStats().get("conversations"));
+        assertEquals(false, cache.hasMessages(KEY));
+    }
+}
@@ -0,0 +1,93 @@
+package klu.com.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import klu.com.util.MessageIdGenerator;
+
+class ChatMessageServiceSyncTest {
+    
+    private static final long READ_AT = 1_750_000_000_000L;
+    
+    // Every read change shares READ_AT, ordered by (reader_id, other_user_id) like the query
+    private static class FixedReadChanges extends ChatInboxService {
+        
+        private final List<Map<String, Object>> rows = new ArrayList<>();
+        
+        FixedReadChanges(int count) {
+            for (int i = 0; i < count; i++) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("reader_id", 1L);
+                row.put("other_user_id", 100L + i);
+                row.put("last_read_message_id", 5L);
+                row.put("last_read_at", new Timestamp(READ_AT));
+                rows.add(row);
+            }
+        }
+        
+        @Override
+        public List<Map<String, Object>> getReadChanges(Long userId, Long readSince, long readerId, long otherUserId, int limit) {
+            List<Map<String, Object>> page = new ArrayList<>();
+            for (Map<String, Object> row : rows) {
+                boolean after = readSince == null || (Long) row.get("other_user_id") > otherUserId;
+                if (after && page.size() < limit) {
+                    page.add(row);
+                }
+            }
+            return page;
+        }
+    }
+    
+    private static ChatMessageService service(ChatInboxService inbox) {
+        JdbcTemplate noMessages = new JdbcTemplate() {
+            @Override
+            public <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+                return new ArrayList<>();
+            }
+        };
+        ChatMessageService service = new ChatMessageService();
+        ReflectionTestUtils.setField(service, "jdbcTemplate", noMessages);
+        ReflectionTestUtils.setField(service, "chatInboxService", inbox);
+        ReflectionTestUtils.setField(service, "chatJournal", new ChatJournal());
+        return service;
+    }
+    
+    @Test
+    void fullReadPageWithOneTimestampMovesForward() {
+        FixedReadChanges inbox = new FixedReadChanges(ChatMessageService.SYNC_PAGE_SIZE + 10);
+        ChatMessageService service = service(inbox);
+        
+        Map<String, Object> first = service.syncMessages(1L, null, null, null, null);
+        assertEquals(true, first.get("hasMore"));
+        assertEquals(READ_AT, first.get("nextReadSince"));
+        assertEquals(1L, first.get("nextReadSinceReaderId"));
+        assertEquals(100L + ChatMessageService.SYNC_PAGE_SIZE - 1, first.get("nextReadSinceOtherUserId"));
+        
+        Map<String, Object> second = service.syncMessages(1L, null, (Long) first.get("nextReadSince"),
+            (Long) first.get("nextReadSinceReaderId"), (Long) first.get("nextReadSinceOtherUserId"));
+        assertEquals(10, ((List<?>) second.get("readStates")).size());
+        assertEquals(false, second.get("hasMore"));
+    }
+    
+    @Test
+    void caughtUpMessageCursorStaysBehindTheSlackWindow() {
+        long before = System.currentTimeMillis();
+        long recentId = MessageIdGenerator.firstIdAt(before);
+        Map<String, Object> response = service(new FixedReadChanges(0)).syncMessages(1L, recentId, null, null, null);
+        
+        long nextSinceId = (Long) response.get("nextSinceId");
+        assertTrue(nextSinceId < MessageIdGenerator.firstIdAt(before - ChatMessageService.CURSOR_SLACK_MS + 1000));
+        assertEquals(false, response.get("hasMore"));
+    }
+}
@@ -0,0 +1,47 @@
+package klu.com.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ChatSearchIndexTest {
+    
+    @Test
+    void matchesAllTermsWithinTheUsersConversations() {
+        ChatSearchIndex index = new ChatSearchIndex();
+        index.add(1, 10, 20, "See you at the Station");
+        index.add(2, 20, 10, "which station?");
+        index.add(300, 10, 30, "the station at noon");
+        index.add(70000, 30, 10, "Station, at noon!");
+        
+        assertEquals(List.of(70000L, 300L, 1L), index.search(10, "at station", null, 10));
+        assertEquals(List.of(2L, 1L), index.search(20, "STATION", null, 10));
+        assertEquals(List.of(300L, 1L), index.search(10, "station at", 70000L, 10));
+        assertEquals(List.of(70000L), index.search(10, "station", null, 1));
+        assertEquals(List.of(), index.search(20, "noon", null, 10));
+    }
+    
+    @Test
+    void checkpointRoundTripsAndSkipsReplayedIds() throws Exception {
+        ChatSearchIndex index = new ChatSearchIndex();
+        index.add(5, 1, 2, "hello world");
+        index.add(9, 2, 1, "hello again");
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes), 9);
+        
+        ChatSearchIndex restored = new ChatSearchIndex();
+        long upTo = restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        restored.add(9, 2, 1, "hello again");
+        restored.add(12, 1, 2, "hello");
+        
+        assertEquals(9, upTo);
+        assertEquals(List.of(12L, 9L, 5L), restored.search(1, "hello", null, 10));
+    }
+}
@@ -0,0 +1,105 @@
+package klu.com.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class FriendGraphTest {
+    
+    // 1 is friends with 2, 3 and 4; 2 and 3 are both friends with 5; 4 is friends with 6
+    private static FriendGraph sample() {
+        FriendGraph graph = new FriendGraph();
+        graph.addAll(new long[] { 1, 2, 3, 1, 1, 4, 2, 5, 5, 3, 4, 6 }, 6);
+        return graph;
+    }
+    
+    @Test
+    void keepsFriendsSortedAndSymmetric() {
+        FriendGraph graph = sample();
+        assertArrayEquals(new long[] { 2, 3, 4 }, graph.friendsOf(1));
+        assertArrayEquals(new long[] { 2, 3 }, graph.friendsOf(5));
+        assertTrue(graph.areFriends(3, 1));
+        assertFalse(graph.areFriends(1, 5));
+        assertArrayEquals(new long[0], graph.friendsOf(42));
+        assertEquals(6, graph.friendshipCount());
+    }
+    
+    @Test
+    void ignoresDuplicatesAndSelfFriendships() {
+        FriendGraph graph = sample();
+        graph.addFriendship(2, 1);
+        graph.addFriendship(7, 7);
+        graph.addAll(new long[] { 1, 2, 4, 1, 0, 3 }, 3);
+        assertArrayEquals(new long[] { 2, 3, 4 }, graph.friendsOf(1));
+        assertEquals(6, graph.friendshipCount());
+    }
+    
+    @Test
+    void addsAndRemovesFriendships() {
+        FriendGraph graph = sample();
+        graph.addFriendship(1, 5);
+        assertArrayEquals(new long[] { 2, 3, 4, 5 }, graph.friendsOf(1));
+        graph.removeFriendship(2, 1);
+        graph.removeFriendship(2, 1);
+        assertArrayEquals(new long[] { 3, 4, 5 }, graph.friendsOf(1));
+        assertArrayEquals(new long[] { 5 }, graph.friendsOf(2));
+        assertEquals(6, graph.friendshipCount());
+    }
+    
+    @Test
+    void countsMutualFriends() {
+        FriendGraph graph = sample();
+        assertEquals(2, graph.mutualFriendCount(1, 5));
+        assertEquals(1, graph.mutualFriendCount(1, 6));
+        assertEquals(0, graph.mutualFriendCount(1, 42));
+        assertTrue(graph.haveMutualFriend(1, 5));
+        assertTrue(graph.haveMutualFriend(6, 1));
+        assertFalse(graph.haveMutualFriend(5, 6));
+        assertFalse(graph.haveMutualFriend(1, 42));
+    }
+    
+    @Test
+    void suggestsFriendsOfFriendsByMutualFriends() {
+        FriendGraph graph = sample();
+        assertArrayEquals(new long[] { 5, 6 }, graph.friendsOfFriends(1));
+        List<FriendGraph.Suggestion> suggestions = graph.suggestions(1, 10);
+        assertEquals(List.of(5L, 6L), suggestions.stream().map(FriendGraph.Suggestion::getUserId).collect(Collectors.toList()));
+        assertEquals(List.of(2, 1), suggestions.stream().map(FriendGraph.Suggestion::getMutualFriends).collect(Collectors.toList()));
+        assertEquals(1, graph.suggestions(1, 1).size());
+        assertTrue(graph.suggestions(6, 10).stream().allMatch(suggestion -> suggestion.getUserId() == 1));
+    }
+    
+    @Test
+    void keepsLowerIdsAmongEqualSuggestions() {
+        FriendGraph graph = new FriendGraph();
+        graph.addAll(new long[] { 1, 2, 2, 9, 2, 7, 2, 8, 1, 3, 3, 9 }, 6);
+        List<FriendGraph.Suggestion> suggestions = graph.suggestions(1, 2);
+        assertEquals(List.of(9L, 7L), suggestions.stream().map(FriendGraph.Suggestion::getUserId).collect(Collectors.toList()));
+        assertEquals(List.of(2, 1), suggestions.stream().map(FriendGraph.Suggestion::getMutualFriends).collect(Collectors.toList()));
+    }
+    
+    @Test
+    void growsPastTheInitialTable() {
+        FriendGraph graph = new FriendGraph();
+        long[] pairs = new long[2 * 5000];
+        for (int i = 0; i < 5000; i++) {
+            pairs[2 * i] = 1;
+            pairs[2 * i + 1] = i + 2;
+        }
+        graph.addAll(pairs, 5000);
+        for (long id = 2; id < 3000; id++) {
+            graph.addFriendship(id, id + 1);
+        }
+        assertEquals(5000, graph.friendsOf(1).length);
+        assertEquals(5001, graph.userCount());
+        assertEquals(5000 + 2998, graph.friendshipCount());
+        assertEquals(2, graph.mutualFriendCount(1, 100));
+        assertTrue(graph.areFriends(5001, 1));
+    }
+}
@@ -0,0 +1,63 @@
+package klu.com.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class UserSearchIndexTest {
+    
+    private static List<Long> ids(List<UserSearchIndex.Match> matches) {
+        return matches.stream().map(UserSearchIndex.Match::getId).collect(Collectors.toList());
+    }
+    
+    private static UserSearchIndex sample() {
+        UserSearchIndex index = new UserSearchIndex();
+        index.add(1, "Anna Smith", "anna@example.com");
+        index.add(2, "Johanna Berg", "jberg@example.com");
+        index.add(3, "Anna", "a.k@example.com");
+        index.add(4, "Hans Annaberg", "hans@example.com");
+        index.add(5, "Bob Stone", "bob.annals@example.com");
+        return index;
+    }
+    
+    @Test
+    void ranksExactThenPrefixThenWordThenSubstringThenEmail() {
+        assertEquals(List.of(3L, 1L, 4L, 2L, 5L), ids(sample().search("ANNA", -1, 10)));
+        assertEquals(List.of(3L, 1L), ids(sample().search("anna", -1, 2)));
+        assertEquals(List.of(1L, 4L, 2L, 5L), ids(sample().search("anna", 3, 10)));
+    }
+    
+    @Test
+    void shortQueriesMatchWordPrefixesOnly() {
+        assertEquals(List.of(5L, 2L), ids(sample().search("b", -1, 10)));
+        assertEquals(List.of(5L), ids(sample().search("st", -1, 10)));
+        assertEquals(List.of(1L), ids(sample().search("sm", -1, 10)));
+        assertEquals(List.of(), ids(sample().search("nn", -1, 10)));
+    }
+    
+    @Test
+    void substringsNeedEveryTrigramInOrder() {
+        assertEquals(List.of(2L), ids(sample().search("hanna b", -1, 10)));
+        assertEquals(List.of(), ids(sample().search("annx", -1, 10)));
+        assertEquals(List.of(2L), ids(sample().search("jberg@", -1, 10)));
+    }
+    
+    @Test
+    void tiersComeBeforeTextRank() {
+        assertEquals(List.of(5L, 2L, 3L, 1L, 4L), ids(sample().search("anna", -1, 10, id -> id == 5 ? 2 : id == 2 ? 1 : 0)));
+        assertEquals(List.of(5L, 2L), ids(sample().search("anna", -1, 2, id -> id == 5 ? 2 : id == 2 ? 1 : 0)));
+    }
+    
+    @Test
+    void ignoresUsersAlreadyIndexed() {
+        UserSearchIndex index = sample();
+        index.add(3, "Anna", "a.k@example.com");
+        index.add(0, "Zed", "zed@example.com");
+        index.add(0, "Zed", "zed@example.com");
+        assertEquals(6, index.size());
+        assertEquals(List.of(0L), ids(index.search("zed", -1, 10)));
+    }
+}
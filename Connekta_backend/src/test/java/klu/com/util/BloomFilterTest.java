@@ -0,0 +1,46 @@
+package klu.com.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class BloomFilterTest {
+    
+    @Test
+    void addedKeysAreAlwaysFound() {
+        BloomFilter filter = new BloomFilter(1 << 16, 4);
+        String[] keys = new String[2000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = UUID.randomUUID().toString();
+            filter.add(keys[i]);
+        }
+        for (String key : keys) {
+            assertTrue(filter.mightContain(key));
+        }
+    }
+    
+    @Test
+    void falsePositiveRateStaysLow() {
+        // 2000 keys in 65536 bits with 4 hashes: expected false positive rate about 0.2%
+        BloomFilter filter = new BloomFilter(1 << 16, 4);
+        for (int i = 0; i < 2000; i++) {
+            filter.add(UUID.randomUUID().toString());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain(UUID.randomUUID().toString())) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 1000, "false positives: " + falsePositives);
+    }
+    
+    @Test
+    void emptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter(1024, 3);
+        assertFalse(filter.mightContain("anything"));
+    }
+}
@@ -0,0 +1,37 @@
+package klu.com.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class MessageIdGeneratorTest {
+    
+    @Test
+    void idsIncreaseCarryNodeAndTimeAndStayJavaScriptSafe() {
+        MessageIdGenerator generator = new MessageIdGenerator(5);
+        long before = System.currentTimeMillis();
+        long previous = 0;
+        for (int i = 0; i < 10_000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            assertEquals(5, (id >>> MessageIdGenerator.SEQUENCE_BITS) & MessageIdGenerator.MAX_NODE_ID);
+            assertTrue(id < (1L << 53));
+            previous = id;
+        }
+        assertTrue(MessageIdGenerator.timestampOf(previous) >= before);
+        assertTrue(MessageIdGenerator.firstIdAt(before) <= previous);
+    }
+    
+    @Test
+    void concurrentCallersNeverShareAnId() {
+        MessageIdGenerator generator = new MessageIdGenerator(0);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 100_000).parallel().forEach(i -> ids.add(generator.nextId()));
+        assertEquals(100_000, ids.size());
+    }
+}